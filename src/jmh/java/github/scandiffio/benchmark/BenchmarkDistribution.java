@@ -0,0 +1,25 @@
+package github.scandiffio.benchmark;
+
+import github.scandiffio.function.FunctionBuilder;
+import github.scandiffio.function.FunctionInterface;
+
+/**
+ * Families of distributions used by the benchmarks. They are built with
+ * {@link FunctionBuilder} from a coefficient of variation: below one it gives
+ * an ErlangEXP, around one an EXP and above one a HyperEXP.
+ */
+public enum BenchmarkDistribution {
+
+	EXP(1.0), ERLANG_EXP(0.5), HYPER_EXP(2.0);
+
+	private final double variationCoeff;
+
+	private BenchmarkDistribution(double variationCoeff) {
+		this.variationCoeff = variationCoeff;
+	}
+
+	public FunctionInterface create(double mean) {
+		return FunctionBuilder.createFunction(variationCoeff, mean);
+	}
+
+}
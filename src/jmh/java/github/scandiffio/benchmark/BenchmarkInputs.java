@@ -0,0 +1,30 @@
+package github.scandiffio.benchmark;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Inputs shared by the benchmarks
+ */
+final class BenchmarkInputs {
+
+	private BenchmarkInputs() {
+		throw new UnsupportedOperationException("It is not allowed to instantiate objects of this class");
+	}
+
+	static int timeBoundStep(BigDecimal timeStep, BigInteger timeBound) {
+		return (int) (timeBound.intValue() / timeStep.doubleValue()) + 1;
+	}
+
+	/**
+	 * A periodic cpu-free profile, standing in for the transient analysis of the
+	 * hard real-time tasks, which is not part of the measure
+	 */
+	static double[] cpuFree(BigDecimal timeStep, BigInteger timeBound) {
+		double[] cpuFree = new double[timeBoundStep(timeStep, timeBound)];
+		for (int t = 0; t < cpuFree.length; t++)
+			cpuFree[t] = 0.75 + 0.25 * Math.cos(2 * Math.PI * t * timeStep.doubleValue() / 5);
+		return cpuFree;
+	}
+
+}
@@ -0,0 +1,67 @@
+package github.scandiffio.benchmark;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import github.scandiffio.analyzer.DenialEDSolver;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class DenialEDSolverBenchmark {
+
+	@Param({ "4", "16" })
+	public int queueSize;
+
+	@Param({ "5", "20" })
+	public int maxDenials;
+
+	@Param({ "EXP", "ERLANG_EXP", "HYPER_EXP" })
+	public BenchmarkDistribution distribution;
+
+	@Param({ "0.01", "0.005" })
+	public String timeStep;
+
+	@Param({ "10", "45" })
+	public String horizon;
+
+	private DenialEDSolver solver;
+	private BigDecimal step;
+	private BigInteger bound;
+	private double[] cpuFree;
+	private long updatesPerAnalysis;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		step = new BigDecimal(timeStep);
+		bound = new BigInteger(horizon);
+		cpuFree = BenchmarkInputs.cpuFree(step, bound);
+		solver = new DenialEDSolver(distribution.create(4.0), distribution.create(1.0), BigInteger.valueOf(queueSize),
+				BigInteger.valueOf(maxDenials), BigInteger.ZERO, BigInteger.ZERO);
+		updatesPerAnalysis = (long) solver.getStateSpace().size() * (cpuFree.length - 1);
+	}
+
+	@Benchmark
+	public DenialEDSolver analyze(StateUpdates updates) {
+		updates.stateUpdates += updatesPerAnalysis;
+		return solver.analyze(step, bound, cpuFree);
+	}
+
+}
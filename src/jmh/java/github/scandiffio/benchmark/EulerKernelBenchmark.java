@@ -0,0 +1,77 @@
+package github.scandiffio.benchmark;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.oristool.math.expression.Variable;
+
+import github.scandiffio.analyzer.EulerIntegrator;
+import github.scandiffio.analyzer.QueueEDSolver;
+import github.scandiffio.function.ErlangEXP;
+
+/**
+ * Scalar and Vector API Euler steps on services with many Erlang phases, where
+ * the phase sweeps dominate the analysis. The forks load the incubating module,
+ * so that vectorized=true really selects the vector kernel.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "--add-modules=jdk.incubator.vector" })
+@State(Scope.Benchmark)
+public class EulerKernelBenchmark {
+
+	@Param({ "8", "32" })
+	public int erlangShape;
+
+	@Param({ "4", "16" })
+	public int queueSize;
+
+	@Param({ "false", "true" })
+	public boolean vectorized;
+
+	private QueueEDSolver solver;
+	private BigDecimal step;
+	private BigInteger bound;
+	private double[] cpuFree;
+	private long updatesPerAnalysis;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Variable x = new Variable("x");
+		step = new BigDecimal("0.001");
+		bound = BigInteger.TEN;
+		cpuFree = BenchmarkInputs.cpuFree(step, bound);
+		// mean service time of one, half of it in the Erlang phases
+		BigDecimal erlangLambda = BigDecimal.valueOf(2 * erlangShape);
+		solver = new QueueEDSolver(BenchmarkDistribution.EXP.create(4.0),
+				new ErlangEXP(x, erlangShape, erlangLambda, BigDecimal.valueOf(2)), BigInteger.valueOf(queueSize),
+				BigInteger.ZERO);
+		EulerIntegrator integrator = new EulerIntegrator(vectorized);
+		if (vectorized && !integrator.isVectorized())
+			throw new IllegalStateException("The module jdk.incubator.vector is not available");
+		solver.setIntegrator(integrator);
+		updatesPerAnalysis = (long) solver.getStateSpace().size() * (cpuFree.length - 1);
+	}
+
+	@Benchmark
+	public QueueEDSolver analyzeStreaming(StateUpdates updates) {
+		updates.stateUpdates += updatesPerAnalysis;
+		return solver.analyzeStreaming(step, bound, cpuFree);
+	}
+
+}
@@ -0,0 +1,25 @@
+package github.scandiffio.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary result of the benchmarks: number of extended states updated per
+ * second, that is the size of the state space times the number of time steps
+ * of each analysis
+ */
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+@State(Scope.Thread)
+public class StateUpdates {
+
+	public long stateUpdates;
+
+	@Setup(Level.Iteration)
+	public void reset() {
+		stateUpdates = 0;
+	}
+
+}
@@ -0,0 +1,88 @@
+package github.scandiffio.benchmark;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import github.scandiffio.analyzer.DTMCSteadyStateAnalyzer;
+import github.scandiffio.analyzer.GTHStationarySolver;
+import github.scandiffio.analyzer.GraphStationarySolver;
+import github.scandiffio.analyzer.PowerStationarySolver;
+import github.scandiffio.analyzer.QueueEDSolver;
+import github.scandiffio.analyzer.SORStationarySolver;
+import github.scandiffio.analyzer.StationarySolver;
+
+/**
+ * Compares the stationary solvers on the matrix embedded at the beginning of
+ * each period by {@link DTMCSteadyStateAnalyzer}
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StationarySolverBenchmark {
+
+	public enum Backend {
+		GRAPH, GTH, POWER, SOR;
+
+		StationarySolver create() {
+			switch (this) {
+			case GRAPH:
+				return new GraphStationarySolver();
+			case GTH:
+				return new GTHStationarySolver();
+			case POWER:
+				return new PowerStationarySolver(1e-12, 1000000);
+			default:
+				return new SORStationarySolver(1.0, 1e-12, 1000000);
+			}
+		}
+	}
+
+	/**
+	 * Exposes the matrix of the analyzer
+	 */
+	private static class PkjAnalyzer extends DTMCSteadyStateAnalyzer {
+		double[][] pkj(QueueEDSolver solver, BigDecimal timeStep, BigInteger hyperPeriod) {
+			return getPkjMatrix(solver, timeStep, hyperPeriod);
+		}
+	}
+
+	@Param({ "GRAPH", "GTH", "POWER", "SOR" })
+	public Backend backend;
+
+	@Param({ "16", "64", "256" })
+	public int queueSize;
+
+	private StationarySolver solver;
+	private double[][] pkjMatrix;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		QueueEDSolver queue = new QueueEDSolver(BenchmarkDistribution.EXP.create(1.0),
+				BenchmarkDistribution.EXP.create(0.8), BigInteger.valueOf(queueSize), BigInteger.ZERO);
+		pkjMatrix = new PkjAnalyzer().pkj(queue, new BigDecimal("0.01"), BigInteger.valueOf(5));
+		solver = backend.create();
+	}
+
+	@Benchmark
+	public double[] solve() {
+		return solver.solve(pkjMatrix);
+	}
+
+}
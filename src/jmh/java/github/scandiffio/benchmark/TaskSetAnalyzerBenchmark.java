@@ -0,0 +1,107 @@
+package github.scandiffio.benchmark;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import github.scandiffio.analyzer.SolverParametersContainer;
+import github.scandiffio.analyzer.TaskSetAnalyzer;
+import github.scandiffio.analyzer.TaskSetEntry;
+import github.scandiffio.task.SoftRealTimeTask;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class TaskSetAnalyzerBenchmark {
+
+	@Param({ "3" })
+	public int tasks;
+
+	@Param({ "4", "16" })
+	public int queueSize;
+
+	@Param({ "5", "20" })
+	public int maxDenials;
+
+	@Param({ "EXP", "ERLANG_EXP", "HYPER_EXP" })
+	public BenchmarkDistribution distribution;
+
+	@Param({ "0.01", "0.005" })
+	public String timeStep;
+
+	@Param({ "10", "45" })
+	public String horizon;
+
+	private TaskSetAnalyzer analyzer;
+	private double[] cpuFree;
+	private BigInteger bound;
+	private BigDecimal step;
+	private long queueUpdatesPerAnalysis;
+	private long denialUpdatesPerAnalysis;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		step = new BigDecimal(timeStep);
+		bound = new BigInteger(horizon);
+		cpuFree = BenchmarkInputs.cpuFree(step, bound);
+
+		TaskSetEntry[] entries = new TaskSetEntry[tasks];
+		for (int i = 0; i < tasks; i++) {
+			// lower priorities get a lighter load, so that every task is served
+			SoftRealTimeTask task = new SoftRealTimeTask(distribution.create(4.0 * (i + 1)), distribution.create(1.0),
+					i + 1);
+			entries[i] = new TaskSetEntry(task, new SolverParametersContainer(BigInteger.valueOf(queueSize),
+					BigInteger.valueOf(maxDenials), BigInteger.ZERO, BigInteger.ZERO));
+		}
+		analyzer = new TaskSetAnalyzer(cpuFree, bound, step, entries);
+		analyzer.setVerbose(false);
+
+		for (SoftRealTimeTask task : analyzer.getTaskSet()) {
+			queueUpdatesPerAnalysis += (long) analyzer.getQueueSolver(task.getId()).getStateSpace().size()
+					* (cpuFree.length - 1);
+			denialUpdatesPerAnalysis += (long) analyzer.getDenialSolver(task.getId()).getStateSpace().size()
+					* (cpuFree.length - 1);
+		}
+	}
+
+	/**
+	 * The analyzer keeps the results of the levels that did not change, so every
+	 * level is invalidated before each call, otherwise only the first call would
+	 * analyze anything
+	 */
+	@Setup(Level.Invocation)
+	public void invalidate() {
+		analyzer.changeTimeInterval(cpuFree, bound, step);
+	}
+
+	@Benchmark
+	public TaskSetAnalyzer analyzeQueues(StateUpdates updates) {
+		updates.stateUpdates += queueUpdatesPerAnalysis;
+		analyzer.analyzeQueues();
+		return analyzer;
+	}
+
+	@Benchmark
+	public TaskSetAnalyzer analyzeDenials(StateUpdates updates) {
+		updates.stateUpdates += denialUpdatesPerAnalysis;
+		analyzer.analyzeDenials();
+		return analyzer;
+	}
+
+}
@@ -0,0 +1,204 @@
+package github.scandiffio.analyzer;
+
+import java.util.Arrays;
+
+/**
+ * First order Taylor expansion of the forward equations, like
+ * {@link EulerIntegrator}, that only updates the active box of the state space.
+ * The active box is the range of queue lengths n and of denials k whose
+ * probability, summed over the phases, exceeds a threshold, widened by a safety
+ * margin on each side. Since a step moves n by at most one and k by at most one
+ * upwards, the states reached within a step are known: they are computed
+ * exactly, then the box is updated and the probability left out of it is
+ * dropped. The box grows as the probability spreads towards longer queues and
+ * more denials, and shrinks when it moves away from the states of t=0.
+ *
+ * The dropped probability is accumulated and bounds the error, in total
+ * variation, of the distribution at each step, as long as the time step keeps
+ * the Euler matrix non-negative. It is read with
+ * {@link #getTruncatedProbability()} after the integration.
+ */
+public class ActiveBoxIntegrator implements TransientIntegrator {
+
+	private final double threshold;
+	private final int margin;
+	// statistics of the last integration, published at its end since the same
+	// integrator may run several integrations in parallel
+	private volatile Statistics statistics = new Statistics(0.0, 0);
+
+	/**
+	 * @param threshold probability of a pair (n,k) above which it belongs to the
+	 *                  active box
+	 * @param margin    number of queue lengths and denials added on each side of
+	 *                  the active box
+	 */
+	public ActiveBoxIntegrator(double threshold, int margin) {
+		if (threshold < 0)
+			throw new IllegalArgumentException("The threshold cannot be negative");
+		if (margin < 0)
+			throw new IllegalArgumentException("The margin cannot be negative");
+		this.threshold = threshold;
+		this.margin = margin;
+	}
+
+	@Override
+	public void integrate(SparseGenerator generator, double[] initialState, double timeStep, double[] cpuFreeProbs,
+			int timeBoundStep, StepObserver consumer) {
+
+		ExtendedStateSpace stateSpace = generator.getStateSpace();
+		int N = stateSpace.getQueueSize();
+		int K = stateSpace.getMaxDenials();
+		double[] cellProbs = new double[(N + 1) * (K + 1)];
+
+		double[] pPrevious = new double[initialState.length];
+		double[] pCurrent = initialState;
+		double[] pSwap;
+
+		double truncatedProbability = 0.0;
+		long updatedStates = 0;
+		// the box is [box[0], box[1]] x [box[2], box[3]] in (n, k)
+		int[] box = new int[4];
+		int[] reached = { 0, N, 0, K };
+		truncatedProbability += truncate(stateSpace, pCurrent, reached, cellProbs, box);
+
+		for (int t = 1; t < timeBoundStep; t++) {
+			pSwap = pPrevious;
+			pPrevious = pCurrent;
+			pCurrent = pSwap;
+
+			// pPrevious is zero outside the box, so pCurrent is zero outside the box
+			// widened by one step
+			reached[0] = Math.max(box[0] - 1, 0);
+			reached[1] = Math.min(box[1] + 1, N);
+			reached[2] = box[2];
+			reached[3] = Math.min(box[3] + 1, K);
+			for (int n = reached[0]; n <= reached[1]; n++) {
+				int first = stateSpace.index(n, reached[2], 0, 0);
+				int end = stateSpace.index(n, reached[3], 0, 0) + stateSpace.phaseBlockSize();
+				generator.eulerStep(pPrevious, pCurrent, timeStep, cpuFreeProbs[t - 1], first, end);
+				updatedStates += end - first;
+			}
+
+			int[] old = box.clone();
+			truncatedProbability += truncate(stateSpace, pCurrent, reached, cellProbs, box);
+			// pPrevious is written next over the widened new box only
+			clearOutside(stateSpace, pPrevious, old, box);
+
+			consumer.observe(t, pCurrent);
+		}
+		statistics = new Statistics(truncatedProbability, updatedStates);
+	}
+
+	/**
+	 * @return true: each step only reads the previous state, and the active box
+	 *         of a state is computed again from the state itself
+	 */
+	@Override
+	public boolean isCausal() {
+		return true;
+	}
+
+	/**
+	 * Computes the new active box from the probabilities of the pairs (n,k)
+	 * within the reached box, and clears the states of the reached box that fall
+	 * out of it
+	 * 
+	 * @return the probability of the cleared states
+	 */
+	private double truncate(ExtendedStateSpace stateSpace, double[] state, int[] reached, double[] cellProbs,
+			int[] box) {
+
+		int N = stateSpace.getQueueSize();
+		int K = stateSpace.getMaxDenials();
+		int block = stateSpace.phaseBlockSize();
+		int minN = Integer.MAX_VALUE, maxN = -1, minK = Integer.MAX_VALUE, maxK = -1;
+
+		for (int n = reached[0]; n <= reached[1]; n++)
+			for (int k = reached[2]; k <= reached[3]; k++) {
+				int first = stateSpace.index(n, k, 0, 0);
+				double sum = 0.0;
+				for (int i = first; i < first + block; i++)
+					sum += state[i];
+				cellProbs[n * (K + 1) + k] = sum;
+				if (sum > threshold) {
+					minN = Math.min(minN, n);
+					maxN = Math.max(maxN, n);
+					minK = Math.min(minK, k);
+					maxK = Math.max(maxK, k);
+				}
+			}
+
+		if (maxN < 0) {
+			// nothing above the threshold: keep all the reached states
+			System.arraycopy(reached, 0, box, 0, 4);
+			return 0.0;
+		}
+
+		box[0] = Math.max(minN - margin, 0);
+		box[1] = Math.min(maxN + margin, N);
+		box[2] = Math.max(minK - margin, 0);
+		box[3] = Math.min(maxK + margin, K);
+
+		double dropped = 0.0;
+
+		for (int n = reached[0]; n <= reached[1]; n++)
+			for (int k = reached[2]; k <= reached[3]; k++) {
+				if (n >= box[0] && n <= box[1] && k >= box[2] && k <= box[3])
+					continue;
+				dropped += cellProbs[n * (K + 1) + k];
+				int first = stateSpace.index(n, k, 0, 0);
+				Arrays.fill(state, first, first + block, 0.0);
+			}
+		return dropped;
+	}
+
+	/**
+	 * Clears the states of the old box that are not in the new one
+	 */
+	private static void clearOutside(ExtendedStateSpace stateSpace, double[] state, int[] old, int[] box) {
+		int block = stateSpace.phaseBlockSize();
+		for (int n = old[0]; n <= old[1]; n++)
+			for (int k = old[2]; k <= old[3]; k++) {
+				if (n >= box[0] && n <= box[1] && k >= box[2] && k <= box[3])
+					continue;
+				int first = stateSpace.index(n, k, 0, 0);
+				Arrays.fill(state, first, first + block, 0.0);
+			}
+	}
+
+	/**
+	 * @return the probability dropped out of the active box by the last
+	 *         integration, which bounds the error of the distribution at each
+	 *         step
+	 */
+	public double getTruncatedProbability() {
+		return statistics.truncatedProbability;
+	}
+
+	/**
+	 * @return the number of state updates of the last integration, to be compared
+	 *         with the number of states times the number of steps
+	 */
+	public long getUpdatedStates() {
+		return statistics.updatedStates;
+	}
+
+	public double getThreshold() {
+		return threshold;
+	}
+
+	public int getMargin() {
+		return margin;
+	}
+
+	private static final class Statistics {
+		private final double truncatedProbability;
+		private final long updatedStates;
+
+		Statistics(double truncatedProbability, long updatedStates) {
+			this.truncatedProbability = truncatedProbability;
+			this.updatedStates = updatedStates;
+		}
+	}
+
+}
@@ -0,0 +1,174 @@
+package github.scandiffio.analyzer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Snapshots of the extended state vector of an equation solver, taken every
+ * given number of time steps. A solver with a checkpoint store resumes its
+ * next analysis from the last snapshot that is still valid instead of t=0,
+ * when the horizon is extended or the cpu-free profile changes after some
+ * time.
+ *
+ * At most a given number of snapshots is kept in memory. The oldest ones are
+ * written to a spill directory, when one is given, or dropped otherwise.
+ */
+public class CheckpointStore {
+
+	private final int interval;
+	private final int maxInMemory;
+	private final Path spillDirectory;
+	private final TreeMap<Integer, double[]> memory = new TreeMap<Integer, double[]>();
+	private final TreeMap<Integer, Path> disk = new TreeMap<Integer, Path>();
+
+	/**
+	 * @param interval       number of time steps between two snapshots
+	 * @param maxInMemory    maximum number of snapshots kept in memory
+	 * @param spillDirectory directory where older snapshots are written, or null
+	 *                       to drop them
+	 */
+	public CheckpointStore(int interval, int maxInMemory, Path spillDirectory) {
+		if (interval < 1)
+			throw new IllegalArgumentException("The checkpoint interval must be positive");
+		if (maxInMemory < 1)
+			throw new IllegalArgumentException("At least one checkpoint must be kept in memory");
+		this.interval = interval;
+		this.maxInMemory = maxInMemory;
+		this.spillDirectory = spillDirectory;
+		if (spillDirectory != null) {
+			try {
+				Files.createDirectories(spillDirectory);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the state if the step is a multiple of the interval
+	 */
+	void offer(int step, double[] state) {
+		if (step % interval != 0)
+			return;
+		memory.put(step, state.clone());
+		removeFromDisk(step);
+		while (memory.size() > maxInMemory) {
+			Map.Entry<Integer, double[]> oldest = memory.pollFirstEntry();
+			if (spillDirectory != null)
+				disk.put(oldest.getKey(), spill(oldest.getValue()));
+		}
+	}
+
+	/**
+	 * @return the last step not after the given one with a snapshot, -1 if there
+	 *         is none
+	 */
+	int latestAtOrBefore(int step) {
+		Integer inMemory = memory.floorKey(step);
+		Integer onDisk = disk.floorKey(step);
+		if (inMemory == null && onDisk == null)
+			return -1;
+		if (inMemory == null)
+			return onDisk;
+		if (onDisk == null)
+			return inMemory;
+		return Math.max(inMemory, onDisk);
+	}
+
+	/**
+	 * @return a copy of the snapshot taken at the given step
+	 */
+	double[] get(int step) {
+		double[] state = memory.get(step);
+		if (state != null)
+			return state.clone();
+		Path file = disk.get(step);
+		if (file == null)
+			throw new IllegalArgumentException("No checkpoint at step " + step);
+		return load(file);
+	}
+
+	/**
+	 * Discards the snapshots taken after the given step
+	 */
+	void discardAfter(int step) {
+		memory.tailMap(step, false).clear();
+		while (!disk.isEmpty() && disk.lastKey() > step)
+			removeFromDisk(disk.lastKey());
+	}
+
+	/**
+	 * Discards all the snapshots
+	 */
+	public void clear() {
+		discardAfter(-1);
+	}
+
+	/**
+	 * @return number of snapshots, in memory and on disk
+	 */
+	public int size() {
+		return memory.size() + disk.size();
+	}
+
+	public int getInterval() {
+		return interval;
+	}
+
+	public int getMaxInMemory() {
+		return maxInMemory;
+	}
+
+	public Path getSpillDirectory() {
+		return spillDirectory;
+	}
+
+	private void removeFromDisk(int step) {
+		Path file = disk.remove(step);
+		if (file != null) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	private Path spill(double[] state) {
+		try {
+			Path file = Files.createTempFile(spillDirectory, "checkpoint", ".bin");
+			ByteBuffer buffer = ByteBuffer.allocate(state.length * Double.BYTES);
+			buffer.asDoubleBuffer().put(state);
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+			}
+			file.toFile().deleteOnExit();
+			return file;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static double[] load(Path file) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0)
+				;
+			buffer.flip();
+			double[] state = new double[buffer.remaining() / Double.BYTES];
+			buffer.asDoubleBuffer().get(state);
+			return state;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+package github.scandiffio.analyzer;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Bounded channel of cpu-free probabilities between two priority levels of a
+ * pipelined analysis. The probabilities travel in chunks of consecutive time
+ * steps; the producer blocks when the consumer is too far behind.
+ */
+final class CpuFreeStream {
+
+	private final ArrayBlockingQueue<double[]> chunks;
+
+	/**
+	 * @param capacity maximum number of chunks waiting to be consumed
+	 */
+	CpuFreeStream(int capacity) {
+		this.chunks = new ArrayBlockingQueue<double[]>(capacity);
+	}
+
+	void put(double[] chunk) throws InterruptedException {
+		chunks.put(chunk);
+	}
+
+	double[] take() throws InterruptedException {
+		return chunks.take();
+	}
+
+	/**
+	 * Publishes a profile that is already known in chunks of the given number of
+	 * time steps
+	 */
+	void publish(double[] cpuFreeProbs, int chunkSteps) throws InterruptedException {
+		for (int from = 0; from < cpuFreeProbs.length; from += chunkSteps) {
+			double[] chunk = new double[Math.min(chunkSteps, cpuFreeProbs.length - from)];
+			System.arraycopy(cpuFreeProbs, from, chunk, 0, chunk.length);
+			put(chunk);
+		}
+	}
+
+}
@@ -0,0 +1,49 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Splits a cpu-free profile into runs of time steps where the probability is
+ * constant within a tolerance.
+ */
+final class CpuProfileSegments {
+
+	private CpuProfileSegments() {
+		throw new UnsupportedOperationException("It is not allowed to instantiate objects of this class");
+	}
+
+	/**
+	 * Finds the end of the run that starts at the given step. The step from t-1 to
+	 * t uses cpuFreeProbs[t-1], so the run [first, last] covers the values
+	 * cpuFreeProbs[first..last-1].
+	 * 
+	 * @param cpuFreeProbs  probability of cpu free at each time step
+	 * @param first         first step of the run
+	 * @param timeBoundStep number of time steps, including step 0
+	 * @param tolerance     maximum difference between two values of the run
+	 * @return the last step of the run, greater than first
+	 */
+	static int end(double[] cpuFreeProbs, int first, int timeBoundStep, double tolerance) {
+		double min = cpuFreeProbs[first];
+		double max = cpuFreeProbs[first];
+		int last = first + 1;
+		while (last < timeBoundStep - 1) {
+			double value = cpuFreeProbs[last];
+			if (Math.max(max, value) - Math.min(min, value) > tolerance)
+				break;
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+			last++;
+		}
+		return last;
+	}
+
+	/**
+	 * @return the mean of cpuFreeProbs[first..last-1]
+	 */
+	static double mean(double[] cpuFreeProbs, int first, int last) {
+		double sum = 0.0;
+		for (int t = first; t < last; t++)
+			sum += cpuFreeProbs[t];
+		return sum / (last - first);
+	}
+
+}
@@ -0,0 +1,159 @@
+package github.scandiffio.analyzer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.oristool.models.stpn.TransientSolution;
+import org.oristool.petrinet.Marking;
+
+/**
+ * Finds the deadline misses of hard real-time tasks in the transient solution
+ * of their net. Each task is described by the list of its places: a task misses
+ * a deadline in a marking where its places hold more than one token overall,
+ * that is when a new job is released before the previous one completes.
+ *
+ * The place names are resolved once, when the evaluator is built, to the tasks
+ * they belong to; the markings are then scanned in parallel through their
+ * non-empty places only.
+ */
+public class DeadlineMissEvaluator {
+
+	private final int tasks;
+	private final HashMap<String, int[]> placeTasks = new HashMap<String, int[]>();
+
+	/**
+	 * @param tasksPlaces names of the places of each task
+	 */
+	public DeadlineMissEvaluator(List<List<String>> tasksPlaces) {
+		if (tasksPlaces.isEmpty())
+			throw new IllegalArgumentException("At least one task is required");
+		this.tasks = tasksPlaces.size();
+		for (int task = 0; task < tasks; task++)
+			for (String place : tasksPlaces.get(task)) {
+				int[] previous = placeTasks.get(place);
+				int[] owners = previous == null ? new int[1] : Arrays.copyOf(previous, previous.length + 1);
+				owners[owners.length - 1] = task;
+				placeTasks.put(place, owners);
+			}
+	}
+
+	/**
+	 * Checks whether some task misses a deadline in a reachable marking. The scan
+	 * stops at the first miss.
+	 *
+	 * @param solution transient solution of the net
+	 * @return true if a marking of the solution is a deadline miss
+	 */
+	public boolean hasDeadlineMiss(TransientSolution<?, Marking> solution) {
+		List<Marking> states = columnStates(solution);
+		return IntStream.range(0, states.size()).parallel().anyMatch(s -> isMiss(states.get(s)));
+	}
+
+	/**
+	 * @param solution transient solution of the net
+	 * @return for each marking of {@link TransientSolution#getColumnStates()}, the
+	 *         tasks that miss a deadline in it, indexed by [task][state]
+	 */
+	public boolean[][] missStates(TransientSolution<?, Marking> solution) {
+		List<Marking> states = columnStates(solution);
+		boolean[][] misses = new boolean[tasks][states.size()];
+		IntStream.range(0, states.size()).parallel().forEach(s -> {
+			int[] tokens = tokens(states.get(s));
+			for (int task = 0; task < tasks; task++)
+				misses[task][s] = tokens[task] > 1;
+		});
+		return misses;
+	}
+
+	/**
+	 * Computes the probability that each task is missing a deadline along time,
+	 * starting from the initial regeneration of the solution
+	 *
+	 * @param solution transient solution of the net
+	 * @return the probabilities indexed by [task][time]
+	 */
+	public double[][] missProbabilities(TransientSolution<?, Marking> solution) {
+		int regeneration = solution.getRegenerations().indexOf(solution.getInitialRegeneration());
+		return missProbabilities(solution, Math.max(regeneration, 0));
+	}
+
+	/**
+	 * Computes the probability that each task is missing a deadline along time
+	 *
+	 * @param solution     transient solution of the net
+	 * @param regeneration index of the initial regeneration in
+	 *                     {@link TransientSolution#getRegenerations()}
+	 * @return the probabilities indexed by [task][time]
+	 */
+	public double[][] missProbabilities(TransientSolution<?, Marking> solution, int regeneration) {
+		if (regeneration < 0 || regeneration >= solution.getRegenerations().size())
+			throw new IllegalArgumentException("The regeneration index must be between 0 and "
+					+ (solution.getRegenerations().size() - 1));
+
+		// the states in which each task misses a deadline
+		boolean[][] misses = missStates(solution);
+		int[][] missIndices = new int[tasks][];
+		for (int task = 0; task < tasks; task++) {
+			ArrayList<Integer> indices = new ArrayList<Integer>();
+			for (int s = 0; s < misses[task].length; s++)
+				if (misses[task][s])
+					indices.add(s);
+			missIndices[task] = indices.stream().mapToInt(Integer::intValue).toArray();
+		}
+
+		double[][][] probabilities = solution.getSolution();
+		double[][] result = new double[tasks][solution.getSamplesNumber()];
+		IntStream.range(0, solution.getSamplesNumber()).parallel().forEach(t -> {
+			double[] row = probabilities[t][regeneration];
+			for (int task = 0; task < tasks; task++) {
+				double sum = 0.0;
+				for (int s : missIndices[task])
+					sum += row[s];
+				result[task][t] = sum;
+			}
+		});
+		return result;
+	}
+
+	private static List<Marking> columnStates(TransientSolution<?, Marking> solution) {
+		List<Marking> states = solution.getColumnStates();
+		if (states.isEmpty())
+			throw new IllegalArgumentException("Empty states");
+		return states;
+	}
+
+	/**
+	 * @return the number of tokens in the places of each task
+	 */
+	private int[] tokens(Marking marking) {
+		int[] tokens = new int[tasks];
+		for (String place : marking.getNonEmptyPlacesNames()) {
+			int[] owners = placeTasks.get(place);
+			if (owners != null) {
+				int count = marking.getTokens(place);
+				for (int task : owners)
+					tokens[task] += count;
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * @return true if some task misses a deadline in the marking
+	 */
+	private boolean isMiss(Marking marking) {
+		int[] tokens = tokens(marking);
+		for (int task = 0; task < tasks; task++)
+			if (tokens[task] > 1)
+				return true;
+		return false;
+	}
+
+	public int getTasks() {
+		return tasks;
+	}
+
+}
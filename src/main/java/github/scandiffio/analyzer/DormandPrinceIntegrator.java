@@ -0,0 +1,214 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Adaptive integration of the forward equations with the embedded Runge-Kutta
+ * pair of Dormand and Prince, orders 5(4). The internal step is chosen from the
+ * given tolerances and is independent of the time step of the analysis: the
+ * results on the time grid are sampled with the continuous extension of the
+ * method. Consecutive time steps with the same cpu-free probability form a
+ * single segment, so that on smooth stretches the integrator can take steps
+ * much longer than the time step. Internal steps never cross a change of the
+ * cpu-free probability.
+ *
+ * A step is rejected when its error estimate exceeds the tolerance or is not a
+ * number; the integration fails when the step would become shorter than
+ * {@link #MIN_STEP_FRACTION} times the time step.
+ */
+public class DormandPrinceIntegrator implements TransientIntegrator {
+
+	private static final double A21 = 1.0 / 5;
+	private static final double A31 = 3.0 / 40, A32 = 9.0 / 40;
+	private static final double A41 = 44.0 / 45, A42 = -56.0 / 15, A43 = 32.0 / 9;
+	private static final double A51 = 19372.0 / 6561, A52 = -25360.0 / 2187, A53 = 64448.0 / 6561,
+			A54 = -212.0 / 729;
+	private static final double A61 = 9017.0 / 3168, A62 = -355.0 / 33, A63 = 46732.0 / 5247, A64 = 49.0 / 176,
+			A65 = -5103.0 / 18656;
+	private static final double A71 = 35.0 / 384, A73 = 500.0 / 1113, A74 = 125.0 / 192, A75 = -2187.0 / 6784,
+			A76 = 11.0 / 84;
+	private static final double E1 = 71.0 / 57600, E3 = -71.0 / 16695, E4 = 71.0 / 1920, E5 = -17253.0 / 339200,
+			E6 = 22.0 / 525, E7 = -1.0 / 40;
+	private static final double D1 = -12715105075.0 / 11282082432.0, D3 = 87487479700.0 / 32700410799.0,
+			D4 = -10690763975.0 / 1880347072.0, D5 = 701980252875.0 / 199316789632.0,
+			D6 = -1453857185.0 / 822651844.0, D7 = 69997945.0 / 29380423.0;
+
+	/**
+	 * Shortest internal step, as a fraction of the time step of the analysis
+	 */
+	public static final double MIN_STEP_FRACTION = 1e-12;
+
+	private final double absoluteTolerance;
+	private final double relativeTolerance;
+	// accepted and rejected steps of the last integration. The same integrator
+	// may run several integrations in parallel, so each one counts its own steps
+	// and publishes them at the end
+	private volatile int[] stepCounts = new int[2];
+
+	/**
+	 * @param absoluteTolerance absolute error allowed on each probability at each
+	 *                          internal step
+	 * @param relativeTolerance relative error allowed on each probability at each
+	 *                          internal step
+	 */
+	public DormandPrinceIntegrator(double absoluteTolerance, double relativeTolerance) {
+		if (absoluteTolerance <= 0 || relativeTolerance < 0)
+			throw new IllegalArgumentException("Tolerances must be positive");
+		this.absoluteTolerance = absoluteTolerance;
+		this.relativeTolerance = relativeTolerance;
+	}
+
+	@Override
+	public void integrate(SparseGenerator generator, double[] initialState, double timeStep, double[] cpuFreeProbs,
+			int timeBoundStep, StepObserver consumer) {
+
+		int size = initialState.length;
+		double[] y = initialState;
+		double[] yNew = new double[size];
+		double[] stage = new double[size];
+		double[] output = new double[size];
+		double[][] k = new double[7][size];
+		double[] swap;
+
+		int acceptedSteps = 0;
+		int rejectedSteps = 0;
+		double minStep = MIN_STEP_FRACTION * timeStep;
+		double h = 0.0;
+		int first = 0;
+
+		while (first < timeBoundStep - 1) {
+			double cpuFree = cpuFreeProbs[first];
+			int last = CpuProfileSegments.end(cpuFreeProbs, first, timeBoundStep, 0.0);
+
+			// integrate the segment [first, last] of the time grid, where the generator is
+			// constant. Times are relative to the start of the segment
+			double end = (last - first) * timeStep;
+			double x = 0.0;
+			int nextSample = first + 1;
+			if (h == 0.0)
+				h = Math.min(end, 0.1 / Math.max(generator.maxExitRate(cpuFree), 1e-12));
+			generator.multiply(y, k[0], cpuFree);
+
+			while (nextSample <= last) {
+				boolean lastStep = x + h >= end;
+				if (lastStep)
+					h = end - x;
+
+				step(generator, cpuFree, y, yNew, stage, k, h);
+				double error = errorNorm(y, yNew, k, h);
+
+				if (!(error <= 1.0)) {
+					rejectedSteps++;
+					h *= Double.isNaN(error) ? 0.2 : Math.max(0.2, 0.9 * Math.pow(error, -0.2));
+					if (h < minStep)
+						throw new IllegalArgumentException("The internal step fell below " + minStep + " at time "
+								+ (first * timeStep + x) + ". Please, try with larger tolerances.");
+					continue;
+				}
+				acceptedSteps++;
+
+				// samples of the time grid inside (x, x + h]
+				while (nextSample <= last && (lastStep || (nextSample - first) * timeStep <= x + h)) {
+					double theta = lastStep && nextSample == last ? 1.0 : ((nextSample - first) * timeStep - x) / h;
+					interpolate(y, yNew, k, h, theta, output);
+					consumer.observe(nextSample, output);
+					nextSample++;
+				}
+
+				double factor = error == 0.0 ? 5.0 : Math.min(5.0, Math.max(0.2, 0.9 * Math.pow(error, -0.2)));
+				x += h;
+				if (!lastStep)
+					h *= factor;
+				swap = y;
+				y = yNew;
+				yNew = swap;
+				swap = k[0];
+				k[0] = k[6];
+				k[6] = swap;
+			}
+			first = last;
+		}
+		stepCounts = new int[] { acceptedSteps, rejectedSteps };
+	}
+
+	/**
+	 * Computes the stages of one step of length h from y, writing the fifth order
+	 * solution in yNew and its derivative in k[6]. k[0] must hold the derivative
+	 * at y.
+	 */
+	private void step(SparseGenerator generator, double cpuFree, double[] y, double[] yNew, double[] stage,
+			double[][] k, double h) {
+		int size = y.length;
+		double[] k1 = k[0], k2 = k[1], k3 = k[2], k4 = k[3], k5 = k[4], k6 = k[5];
+
+		for (int i = 0; i < size; i++)
+			stage[i] = y[i] + h * A21 * k1[i];
+		generator.multiply(stage, k2, cpuFree);
+		for (int i = 0; i < size; i++)
+			stage[i] = y[i] + h * (A31 * k1[i] + A32 * k2[i]);
+		generator.multiply(stage, k3, cpuFree);
+		for (int i = 0; i < size; i++)
+			stage[i] = y[i] + h * (A41 * k1[i] + A42 * k2[i] + A43 * k3[i]);
+		generator.multiply(stage, k4, cpuFree);
+		for (int i = 0; i < size; i++)
+			stage[i] = y[i] + h * (A51 * k1[i] + A52 * k2[i] + A53 * k3[i] + A54 * k4[i]);
+		generator.multiply(stage, k5, cpuFree);
+		for (int i = 0; i < size; i++)
+			stage[i] = y[i] + h * (A61 * k1[i] + A62 * k2[i] + A63 * k3[i] + A64 * k4[i] + A65 * k5[i]);
+		generator.multiply(stage, k6, cpuFree);
+		for (int i = 0; i < size; i++)
+			yNew[i] = y[i] + h * (A71 * k1[i] + A73 * k3[i] + A74 * k4[i] + A75 * k5[i] + A76 * k6[i]);
+		generator.multiply(yNew, k[6], cpuFree);
+	}
+
+	/**
+	 * Root mean square of the local error estimate, scaled by the tolerances
+	 */
+	private double errorNorm(double[] y, double[] yNew, double[][] k, double h) {
+		double[] k1 = k[0], k3 = k[2], k4 = k[3], k5 = k[4], k6 = k[5], k7 = k[6];
+		double sum = 0.0;
+		for (int i = 0; i < y.length; i++) {
+			double error = h * (E1 * k1[i] + E3 * k3[i] + E4 * k4[i] + E5 * k5[i] + E6 * k6[i] + E7 * k7[i]);
+			double scale = absoluteTolerance + relativeTolerance * Math.max(Math.abs(y[i]), Math.abs(yNew[i]));
+			sum += (error / scale) * (error / scale);
+		}
+		return Math.sqrt(sum / y.length);
+	}
+
+	/**
+	 * Continuous extension of the step at y + theta * h. Values below zero, which
+	 * are within the tolerance, are clamped.
+	 */
+	private void interpolate(double[] y, double[] yNew, double[][] k, double h, double theta, double[] output) {
+		double[] k1 = k[0], k3 = k[2], k4 = k[3], k5 = k[4], k6 = k[5], k7 = k[6];
+		double theta1 = 1.0 - theta;
+		for (int i = 0; i < y.length; i++) {
+			double difference = yNew[i] - y[i];
+			double spline = h * k1[i] - difference;
+			double value = y[i] + theta * (difference + theta1 * (spline + theta * (difference - h * k7[i] - spline
+					+ theta1 * h * (D1 * k1[i] + D3 * k3[i] + D4 * k4[i] + D5 * k5[i] + D6 * k6[i] + D7 * k7[i]))));
+			output[i] = Math.max(value, 0.0);
+		}
+	}
+
+	/**
+	 * @return number of internal steps accepted during the last integration
+	 */
+	public int getAcceptedSteps() {
+		return stepCounts[0];
+	}
+
+	/**
+	 * @return number of internal steps rejected during the last integration
+	 */
+	public int getRejectedSteps() {
+		return stepCounts[1];
+	}
+
+	public double getAbsoluteTolerance() {
+		return absoluteTolerance;
+	}
+
+	public double getRelativeTolerance() {
+		return relativeTolerance;
+	}
+
+}
@@ -0,0 +1,547 @@
+package github.scandiffio.analyzer;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import github.scandiffio.function.FunctionInterface;
+
+/**
+ * Common base of the equation solvers. It builds the sparse generator of the
+ * queue CTMC and integrates the forward equations along time, keeping the
+ * extended states and one marginal distribution at each time step.
+ */
+public abstract class EDSolver {
+
+	private static final int BLOCK_WIDTH = 8;
+
+	protected final BigDecimal[] arrivalLambdas;
+	protected final BigDecimal[] serviceLambdas;
+	protected final ExtendedStateSpace stateSpace;
+	protected final SparseGenerator generator;
+	private TransientIntegrator integrator = new EulerIntegrator();
+	private StoragePrecision retainedPrecision = StoragePrecision.DOUBLE;
+	private long mappedThreshold = Long.MAX_VALUE;
+	private Path mappedDirectory;
+	private RetainedStates extendedStatesAlongTime;
+	private double[][] marginalAlongTime;
+	private CheckpointStore checkpoints;
+	// inputs of the last analysis that can be resumed
+	private double[] lastCpuFree;
+	private BigDecimal lastTimeStep;
+
+	/**
+	 * @param arrivalDistribution probability distribution of arrival events
+	 * @param serviceDistribution probability distribution of service events
+	 * @param queueSize           maximum size of the queue
+	 * @param maxDenials          maximum number of counted denials, zero if
+	 *                            denials are not counted
+	 */
+	protected EDSolver(FunctionInterface arrivalDistribution, FunctionInterface serviceDistribution, int queueSize,
+			int maxDenials) {
+		this.arrivalLambdas = DistributionExtender.getExtendedProbs(arrivalDistribution);
+		this.serviceLambdas = DistributionExtender.getExtendedProbs(serviceDistribution);
+		this.stateSpace = new ExtendedStateSpace(queueSize, maxDenials, arrivalLambdas.length,
+				serviceLambdas.length);
+		this.generator = GeneratorBuilder.build(stateSpace, arrivalLambdas, serviceLambdas, maxDenials > 0);
+	}
+
+	/**
+	 * @return the distribution of the extended states at t=0
+	 */
+	protected abstract double[] getInitialState();
+
+	/**
+	 * @return the marginal distribution retained at each time step by
+	 *         non-streaming analyses
+	 */
+	protected abstract Marginal getRetainedMarginal();
+
+	/**
+	 * Integrates the forward equations of the CTMC from t=0 to timeBound
+	 * 
+	 * @param timeStep     analysis time step
+	 * @param timeBound    analysis end time
+	 * @param cpuFreeProbs probability of cpu free at each time
+	 * @param retain       true to keep the extended states and the retained
+	 *                     marginal at each time step
+	 * @param observers    observers notified at each time step. The steps before
+	 *                     a resume point cannot be replayed to them, so an
+	 *                     analysis with observers always starts over
+	 */
+	protected void solve(BigDecimal timeStep, BigInteger timeBound, double[] cpuFreeProbs, boolean retain,
+			StepObserver[] observers) {
+
+		int timeBoundStep = (int) (timeBound.intValue() / timeStep.doubleValue()) + 1;
+
+		if (timeBoundStep != cpuFreeProbs.length)
+			throw new IllegalArgumentException("CpuProbabilities.length must be equal to timeBound/timeStep +1");
+		checkCpuFree(cpuFreeProbs);
+
+		RetainedStates previousStates = extendedStatesAlongTime;
+		double[][] previousMarginal = marginalAlongTime;
+		// retained results can only be completed from the retained states of the last
+		// analysis, with the same precision
+		boolean previousRetained = previousStates != null && previousStates.getPrecision() == retainedPrecision;
+		int resume = observers.length > 0 || retain && !previousRetained ? 0
+				: resumeStep(timeStep, cpuFreeProbs, retain);
+
+		double[] initialState;
+		if (resume == 0) {
+			initialState = begin(timeBoundStep, retain, observers);
+		} else {
+			// the steps up to resume did not change since the last analysis
+			allocate(timeBoundStep, retain);
+			if (retain) {
+				initialState = new double[stateSpace.size()];
+				for (int t = 0; t <= resume; t++) {
+					previousStates.copy(t, 0, initialState, initialState.length);
+					extendedStatesAlongTime.put(t, initialState);
+				}
+				System.arraycopy(previousMarginal, 0, marginalAlongTime, 0, resume + 1);
+			} else {
+				initialState = checkpoints.get(resume);
+			}
+		}
+		if (checkpoints != null) {
+			checkpoints.discardAfter(resume);
+			checkpoints.offer(resume, initialState);
+			this.lastCpuFree = cpuFreeProbs.clone();
+			this.lastTimeStep = timeStep;
+		}
+
+		double[] scratchMarginal = new double[getRetainedMarginal().width(stateSpace)];
+		double[] remainingCpuFree = resume == 0 ? cpuFreeProbs
+				: Arrays.copyOfRange(cpuFreeProbs, resume, timeBoundStep);
+
+		integrator.integrate(generator, initialState, timeStep.doubleValue(), remainingCpuFree,
+				timeBoundStep - resume, (s, state) -> {
+					int t = resume + s;
+					record(t, state, retain ? new double[scratchMarginal.length] : scratchMarginal);
+					for (StepObserver observer : observers)
+						observer.observe(t, state);
+					if (checkpoints != null)
+						checkpoints.offer(t, state);
+				});
+	}
+
+	/**
+	 * Finds the step from which the analysis can be resumed. With a causal
+	 * integrator, see {@link TransientIntegrator#isCausal()}, the state at step t
+	 * depends on cpuFreeProbs[0..t-1] only, so the states computed by the last
+	 * analysis are valid up to the first step whose cpu-free probability changed.
+	 * The other integrators always start over.
+	 * 
+	 * @param fromRetained true if the retained states of the last analysis can be
+	 *                     used, false to resume from a checkpoint
+	 * @return the step to resume from, 0 to start over
+	 */
+	private int resumeStep(BigDecimal timeStep, double[] cpuFreeProbs, boolean fromRetained) {
+		if (checkpoints == null || lastCpuFree == null || timeStep.compareTo(lastTimeStep) != 0
+				|| !integrator.isCausal())
+			return 0;
+		int valid = Math.min(lastCpuFree.length, cpuFreeProbs.length) - 1;
+		for (int t = 0; t < valid; t++)
+			if (cpuFreeProbs[t] != lastCpuFree[t]) {
+				valid = t;
+				break;
+			}
+		if (fromRetained)
+			return valid;
+		return Math.max(checkpoints.latestAtOrBefore(valid), 0);
+	}
+
+	/**
+	 * Pipelined variant of
+	 * {@link #solve(BigDecimal, BigInteger, double[], boolean, StepObserver[])}.
+	 * The cpu-free probabilities are taken from the input stream in chunks, and
+	 * each chunk is integrated as soon as it arrives. When an output stream is
+	 * given, the probability that the cpu is free for the next priority level,
+	 * that is cpuFree[t] times the probability of state 0 at t, is published in
+	 * chunks of the same length.
+	 * 
+	 * @param timeStep  analysis time step
+	 * @param timeBound analysis end time
+	 * @param input     cpu-free probabilities of this level, timeBound/timeStep +1
+	 *                  values in total
+	 * @param output    cpu-free probabilities of the next level, or null
+	 * @param retain    true to keep the extended states and the retained
+	 *                  marginal at each time step
+	 * @param observers observers notified at each time step
+	 * @throws InterruptedException if the thread is interrupted while waiting for
+	 *                              a chunk
+	 */
+	void solve(BigDecimal timeStep, BigInteger timeBound, CpuFreeStream input, CpuFreeStream output,
+			boolean retain, StepObserver[] observers) throws InterruptedException {
+
+		int timeBoundStep = (int) (timeBound.intValue() / timeStep.doubleValue()) + 1;
+		double dt = timeStep.doubleValue();
+		forgetLastAnalysis();
+
+		double[] state = begin(timeBoundStep, retain, observers);
+		double[] scratchMarginal = new double[getRetainedMarginal().width(stateSpace)];
+		double[] carry = new double[state.length];
+		double idle = state[0];
+
+		int offset = 0;
+		while (offset < timeBoundStep) {
+			double[] chunk = input.take();
+			if (offset + chunk.length > timeBoundStep)
+				throw new IllegalArgumentException("CpuProbabilities.length must be equal to timeBound/timeStep +1");
+			checkCpuFree(chunk);
+
+			// the chunk holds cpuFree[offset, offset + length) and moves the state from
+			// offset to offset + length, except for the last chunk
+			int first = offset;
+			int steps = Math.min(chunk.length, timeBoundStep - 1 - offset);
+			double[] idles = new double[chunk.length];
+			idles[0] = idle;
+			if (steps > 0) {
+				double[] last = carry;
+				integrator.integrate(generator, state, dt, chunk, steps + 1, (s, current) -> {
+					record(first + s, current, retain ? new double[scratchMarginal.length] : scratchMarginal);
+					for (StepObserver observer : observers)
+						observer.observe(first + s, current);
+					if (s < idles.length)
+						idles[s] = current[0];
+					if (s == steps)
+						System.arraycopy(current, 0, last, 0, last.length);
+				});
+				carry = state;
+				state = last;
+				idle = state[0];
+			}
+
+			if (output != null) {
+				double[] next = new double[chunk.length];
+				for (int j = 0; j < chunk.length; j++)
+					next[j] = chunk[j] * idles[j];
+				output.put(next);
+			}
+			offset += chunk.length;
+		}
+	}
+
+	/**
+	 * Propagates several initial distributions of the extended states from t=0 to
+	 * timeBound and returns only the final distributions. The initial states are
+	 * advanced in blocks of columns with a single pass over the generator for
+	 * each time step, and the blocks are propagated in parallel. The results of
+	 * the last analysis are not changed.
+	 * 
+	 * @param initialStates initial distributions, indexed by [column][state]
+	 * @param timeStep      analysis time step
+	 * @param timeBound     analysis end time
+	 * @param cpuFreeProbs  probability of cpu free at each time
+	 * @return the distributions at timeBound, indexed by [column][state]
+	 */
+	public double[][] propagate(double[][] initialStates, BigDecimal timeStep, BigInteger timeBound,
+			double[] cpuFreeProbs) {
+
+		int timeBoundStep = (int) (timeBound.intValue() / timeStep.doubleValue()) + 1;
+
+		if (timeBoundStep != cpuFreeProbs.length)
+			throw new IllegalArgumentException("CpuProbabilities.length must be equal to timeBound/timeStep +1");
+		checkCpuFree(cpuFreeProbs);
+		for (double[] initialState : initialStates)
+			if (initialState.length != stateSpace.size())
+				throw new IllegalArgumentException("Initial states must have " + stateSpace.size() + " elements");
+
+		int size = stateSpace.size();
+		double dt = timeStep.doubleValue();
+		double[][] finalStates = new double[initialStates.length][size];
+		int blocks = (initialStates.length + BLOCK_WIDTH - 1) / BLOCK_WIDTH;
+
+		IntStream.range(0, blocks).parallel().forEach(b -> {
+			int from = b * BLOCK_WIDTH;
+			int width = Math.min(BLOCK_WIDTH, initialStates.length - from);
+			double[] block = new double[size * width];
+			for (int c = 0; c < width; c++)
+				for (int i = 0; i < size; i++)
+					block[i * width + c] = initialStates[from + c][i];
+
+			integrator.integrateFinal(generator, block, width, dt, cpuFreeProbs, timeBoundStep);
+
+			for (int c = 0; c < width; c++)
+				for (int i = 0; i < size; i++)
+					finalStates[from + c][i] = block[i * width + c];
+		});
+		return finalStates;
+	}
+
+	/**
+	 * Allocates the results, records the initial state and notifies the observers
+	 * 
+	 * @return a copy of the initial state
+	 */
+	private double[] begin(int timeBoundStep, boolean retain, StepObserver[] observers) {
+		int width = getRetainedMarginal().width(stateSpace);
+
+		allocate(timeBoundStep, retain);
+
+		double[] initialState = getInitialState().clone();
+
+		record(0, initialState, new double[width]);
+		for (StepObserver observer : observers) {
+			observer.begin(stateSpace, timeBoundStep);
+			observer.observe(0, initialState);
+		}
+		return initialState;
+	}
+
+	/**
+	 * Allocates the retained states, in a mapped file when they are larger than
+	 * the threshold
+	 */
+	private void allocate(int timeBoundStep, boolean retain) {
+		this.extendedStatesAlongTime = null;
+		this.marginalAlongTime = null;
+		if (!retain)
+			return;
+		int size = stateSpace.size();
+		if (RetainedStates.bytes(timeBoundStep, size, retainedPrecision) > mappedThreshold)
+			this.extendedStatesAlongTime = new MappedStates(timeBoundStep, size, retainedPrecision, mappedDirectory);
+		else if (retainedPrecision == StoragePrecision.SINGLE)
+			this.extendedStatesAlongTime = new RetainedStates.HeapFloats(timeBoundStep, size);
+		else
+			this.extendedStatesAlongTime = new RetainedStates.HeapDoubles(timeBoundStep, size);
+		this.marginalAlongTime = new double[timeBoundStep][];
+	}
+
+	private static void checkCpuFree(double[] cpuFreeProbs) {
+		for (double val : cpuFreeProbs)
+			if (val < 0 || val > 1.01)
+				throw new IllegalArgumentException("CpuProbabilities must in the range [0,1]. Got " + val);
+	}
+
+	/**
+	 * Checks the state vector of a time step, sums it into the retained marginal
+	 * and stores it in the retained states
+	 */
+	private void record(int t, double[] state, double[] marginal) {
+		boolean byQueueLength = getRetainedMarginal() == Marginal.QUEUE_LENGTH;
+		int block = stateSpace.phaseBlockSize();
+		int K = stateSpace.getMaxDenials();
+
+		for (int i = 0; i < marginal.length; i++)
+			marginal[i] = 0.0;
+
+		for (int n = 0; n <= stateSpace.getQueueSize(); n++) {
+			for (int k = 0; k <= K; k++) {
+				int base = stateSpace.index(n, k, 0, 0);
+				double sum = 0.0;
+				for (int i = base; i < base + block; i++) {
+					double p = state[i];
+					if (p < 0) {
+						System.out.println(p);
+						throw new IllegalArgumentException(
+								"Negative probabilities result. " + "Please, try with a lower timeStep.");
+					}
+					sum += p;
+				}
+				marginal[byQueueLength ? n : k] += sum;
+			}
+		}
+
+		for (int i = 0; i < marginal.length; i++)
+			if (marginal[i] > 1.0000002 || marginal[i] < 0.0) {
+				System.out.println("time: " + t + " index " + i + " esattamente: " + marginal[i]);
+				throw new IllegalArgumentException("Marginal probability greater than one");
+			}
+
+		if (marginalAlongTime != null) {
+			extendedStatesAlongTime.put(t, state);
+			marginalAlongTime[t] = marginal;
+		}
+	}
+
+	/**
+	 * Returns the probability of each extended state at each time step, without
+	 * building a nested representation. The layout of each row is given by
+	 * {@link #getStateSpace()}.
+	 * 
+	 * With {@link StoragePrecision#SINGLE} or mapped storage the rows are copied
+	 * to the heap on each call; {@link #getExtendedProbability(int, int)} reads
+	 * single values without copies.
+	 * 
+	 * @return probabilities indexed by [time][state], null after a streaming
+	 *         analysis
+	 */
+	public double[][] getExtendedStatesAlongTime() {
+		return extendedStatesAlongTime != null ? extendedStatesAlongTime.toArray() : null;
+	}
+
+	/**
+	 * @param t     time step
+	 * @param state index of the extended state, see {@link #getStateSpace()}
+	 * @return the retained probability of the state at the given time step
+	 */
+	public double getExtendedProbability(int t, int state) {
+		return extendedStatesAlongTime.get(t, state);
+	}
+
+	/**
+	 * @param t time step
+	 * @param n jobs in queue
+	 * @param k denied jobs
+	 * @param h arrival phase
+	 * @param l service phase
+	 * @return the retained probability of the state at the given time step
+	 */
+	public double getExtendedProbability(int t, int n, int k, int h, int l) {
+		return extendedStatesAlongTime.get(t, stateSpace.index(n, k, h, l));
+	}
+
+	/**
+	 * @return number of time steps whose extended states are retained, zero
+	 *         after a streaming analysis
+	 */
+	public int getRetainedSteps() {
+		return marginalAlongTime != null ? marginalAlongTime.length : 0;
+	}
+
+	/**
+	 * Copies consecutive retained probabilities of a time step, in the precision
+	 * of the storage
+	 * 
+	 * @param t           time step
+	 * @param from        index of the first extended state
+	 * @param destination array where the probabilities are written from index 0
+	 * @param length      number of states
+	 */
+	protected void copyExtendedStates(int t, int from, double[] destination, int length) {
+		extendedStatesAlongTime.copy(t, from, destination, length);
+	}
+
+	/**
+	 * @return the retained marginal indexed by [time][value], null after a
+	 *         streaming analysis
+	 */
+	protected double[][] getMarginalAlongTime() {
+		return marginalAlongTime;
+	}
+
+	/**
+	 * @return the layout of the extended states of this solver
+	 */
+	public ExtendedStateSpace getStateSpace() {
+		return stateSpace;
+	}
+
+	/**
+	 * @return the method used to integrate the forward equations
+	 */
+	public TransientIntegrator getIntegrator() {
+		return integrator;
+	}
+
+	/**
+	 * Selects the method used to integrate the forward equations. The default is
+	 * {@link EulerIntegrator}.
+	 * 
+	 * @param integrator the integration method
+	 */
+	public void setIntegrator(TransientIntegrator integrator) {
+		if (integrator == null)
+			throw new IllegalArgumentException("The integrator must not be null");
+		this.integrator = integrator;
+		forgetLastAnalysis();
+	}
+
+	public StoragePrecision getRetainedPrecision() {
+		return retainedPrecision;
+	}
+
+	/**
+	 * Selects the precision of the extended states retained by the next
+	 * analyses. The default is {@link StoragePrecision#DOUBLE}.
+	 * 
+	 * @param precision precision of the retained states
+	 */
+	public void setRetainedPrecision(StoragePrecision precision) {
+		if (precision == null)
+			throw new IllegalArgumentException("The precision must not be null");
+		this.retainedPrecision = precision;
+	}
+
+	/**
+	 * Estimates the memory taken by the extended states retained by an analysis
+	 * 
+	 * @param timeStep  analysis time step
+	 * @param timeBound analysis end time
+	 * @return number of bytes, with the current retained precision
+	 */
+	public long estimateRetainedBytes(BigDecimal timeStep, BigInteger timeBound) {
+		int timeBoundStep = (int) (timeBound.intValue() / timeStep.doubleValue()) + 1;
+		return RetainedStates.bytes(timeBoundStep, stateSpace.size(), retainedPrecision);
+	}
+
+	/**
+	 * Keeps the extended states retained by the next analyses in a memory-mapped
+	 * temporary file, instead of the heap, when they take more than the given
+	 * number of bytes. The default threshold is Long.MAX_VALUE, that is always on
+	 * the heap.
+	 * 
+	 * @param thresholdBytes size above which the states are mapped, see
+	 *                       {@link #estimateRetainedBytes}
+	 * @param directory      directory of the temporary files, or null for the
+	 *                       default temporary directory
+	 */
+	public void setMappedStorage(long thresholdBytes, Path directory) {
+		if (thresholdBytes < 0)
+			throw new IllegalArgumentException("The threshold cannot be negative");
+		this.mappedThreshold = thresholdBytes;
+		this.mappedDirectory = directory;
+	}
+
+	public long getMappedThreshold() {
+		return mappedThreshold;
+	}
+
+	/**
+	 * @return true if the states retained by the last analysis are in a mapped
+	 *         file
+	 */
+	public boolean isRetainedMapped() {
+		return extendedStatesAlongTime instanceof MappedStates;
+	}
+
+	/**
+	 * Enables the checkpoints: the state is saved during each analysis, and the
+	 * next analysis with the same time step resumes from the last step that is
+	 * still valid, that is before the first change of the cpu-free profile or at
+	 * the end of the previous horizon. With retained results the states of the
+	 * last analysis are reused directly; with streaming analyses the nearest
+	 * checkpoint is used. Analyses are only resumed with causal integrators, see
+	 * {@link TransientIntegrator#isCausal()}, and streaming analyses with
+	 * observers always start over, since the observers must receive every step;
+	 * their states are still saved for the next analysis.
+	 * 
+	 * @param checkpoints where the states are saved, or null to disable
+	 */
+	public void setCheckpoints(CheckpointStore checkpoints) {
+		forgetLastAnalysis();
+		this.checkpoints = checkpoints;
+	}
+
+	public CheckpointStore getCheckpoints() {
+		return checkpoints;
+	}
+
+	private void forgetLastAnalysis() {
+		this.lastCpuFree = null;
+		this.lastTimeStep = null;
+		if (checkpoints != null)
+			checkpoints.clear();
+	}
+
+	/**
+	 * @return the sparse generator of the CTMC
+	 */
+	public SparseGenerator getGenerator() {
+		return generator;
+	}
+
+}
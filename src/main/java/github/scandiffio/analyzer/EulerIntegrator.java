@@ -0,0 +1,133 @@
+package github.scandiffio.analyzer;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * First order Taylor expansion of the forward equations, one step per time
+ * step. It is cheap, but the time step must be small compared to the fastest
+ * rate of the CTMC, otherwise it produces negative probabilities.
+ *
+ * The step can be computed by a kernel written with the Vector API, which is
+ * used when it is asked for, the JVM is started with --add-modules
+ * jdk.incubator.vector and the generator has few diagonals, as the generators
+ * of the equation solvers do; otherwise the scalar step of
+ * {@link SparseGenerator} is used.
+ */
+public class EulerIntegrator implements TransientIntegrator {
+
+	// factory of the Vector API kernel, null when the module is not available
+	private static final Method VECTOR_KERNEL = vectorKernelFactory();
+
+	// marks the generators with too many diagonals for the Vector API kernel
+	private static final EulerKernel NO_KERNEL = (prev, next, timeStep, cpuFree) -> {
+	};
+
+	private final boolean vectorized;
+	// the kernels are built once for each generator, since the pipelined solvers
+	// integrate one chunk at a time
+	private final Map<SparseGenerator, EulerKernel> kernels = Collections
+			.synchronizedMap(new WeakHashMap<SparseGenerator, EulerKernel>());
+
+	/**
+	 * Builds the integrator with the scalar step
+	 */
+	public EulerIntegrator() {
+		this(false);
+	}
+
+	/**
+	 * @param vectorized true to use the Vector API kernel when the module
+	 *                   jdk.incubator.vector is available
+	 */
+	public EulerIntegrator(boolean vectorized) {
+		this.vectorized = vectorized;
+	}
+
+	@Override
+	public void integrate(SparseGenerator generator, double[] initialState, double timeStep, double[] cpuFreeProbs,
+			int timeBoundStep, StepObserver consumer) {
+
+		EulerKernel kernel = isVectorized() ? kernels.computeIfAbsent(generator, EulerIntegrator::vectorKernel)
+				: NO_KERNEL;
+		if (kernel == NO_KERNEL)
+			kernel = generator::eulerStep;
+		double[] pPrevious = new double[initialState.length];
+		double[] pCurrent = initialState;
+		double[] pSwap;
+
+		for (int t = 1; t < timeBoundStep; t++) {
+			pSwap = pPrevious;
+			pPrevious = pCurrent;
+			pCurrent = pSwap;
+
+			kernel.eulerStep(pPrevious, pCurrent, timeStep, cpuFreeProbs[t - 1]);
+			consumer.observe(t, pCurrent);
+		}
+	}
+
+	/**
+	 * @return true, each step only reads the previous state
+	 */
+	@Override
+	public boolean isCausal() {
+		return true;
+	}
+
+	@Override
+	public void integrateFinal(SparseGenerator generator, double[] block, int width, double timeStep,
+			double[] cpuFreeProbs, int timeBoundStep) {
+
+		double[] pPrevious = new double[block.length];
+		double[] pCurrent = block;
+		double[] pSwap;
+
+		for (int t = 1; t < timeBoundStep; t++) {
+			pSwap = pPrevious;
+			pPrevious = pCurrent;
+			pCurrent = pSwap;
+
+			generator.eulerStep(pPrevious, pCurrent, width, timeStep, cpuFreeProbs[t - 1]);
+		}
+		if (pCurrent != block)
+			System.arraycopy(pCurrent, 0, block, 0, block.length);
+	}
+
+	/**
+	 * @return true if the steps are computed by the Vector API kernel
+	 */
+	public boolean isVectorized() {
+		return vectorized && VECTOR_KERNEL != null;
+	}
+
+	/**
+	 * @return the Vector API kernel of the generator, NO_KERNEL if it has too
+	 *         many diagonals
+	 */
+	private static EulerKernel vectorKernel(SparseGenerator generator) {
+		try {
+			EulerKernel kernel = (EulerKernel) VECTOR_KERNEL.invoke(null, generator);
+			return kernel != null ? kernel : NO_KERNEL;
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * VectorEulerKernel is compiled apart with the incubating module, so it is
+	 * looked up reflectively and never loaded when the module is missing
+	 */
+	private static Method vectorKernelFactory() {
+		if (!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+			return null;
+		try {
+			return Class.forName(EulerIntegrator.class.getPackageName() + ".VectorEulerKernel")
+					.getDeclaredMethod("of", SparseGenerator.class);
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Implementation of the Euler step of a sparse generator, see
+ * {@link SparseGenerator#eulerStep(double[], double[], double, double)}.
+ */
+interface EulerKernel {
+
+	/**
+	 * Computes next = prev + timeStep * prev * Q
+	 * 
+	 * @param prev     probabilities at the current time
+	 * @param next     array where the probabilities after timeStep are written
+	 * @param timeStep length of the step
+	 * @param cpuFree  probability that the cpu is free during the step
+	 */
+	void eulerStep(double[] prev, double[] next, double timeStep, double cpuFree);
+
+}
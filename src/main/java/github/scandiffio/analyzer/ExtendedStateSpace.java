@@ -0,0 +1,92 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Layout of the extended states of the equation solvers. A state is made of the
+ * number of queued jobs n, the number of denials k, the phase h of the arrival
+ * and the phase l of the service. States are stored in a flat array where the
+ * state (n,k,h,l) is at index ((n * (K + 1) + k) * (H + 1) + h) * (L + 1) + l.
+ * The queue solver does not count denials, so its layout has K = 0.
+ */
+public final class ExtendedStateSpace {
+
+	private final int queueSize;
+	private final int maxDenials;
+	private final int arrivalPhases;
+	private final int servicePhases;
+
+	/**
+	 * Builds the layout
+	 * 
+	 * @param queueSize     maximum size of the queue
+	 * @param maxDenials    maximum number of counted denials, zero if denials are
+	 *                      not counted
+	 * @param arrivalPhases number of exponential phases of the arrival
+	 * @param servicePhases number of exponential phases of the service
+	 */
+	public ExtendedStateSpace(int queueSize, int maxDenials, int arrivalPhases, int servicePhases) {
+		if (queueSize <= 0)
+			throw new IllegalArgumentException("QueueSize must be positive");
+		if (maxDenials < 0)
+			throw new IllegalArgumentException("MaxDenials must not be negative");
+		if (arrivalPhases <= 0 || servicePhases <= 0)
+			throw new IllegalArgumentException("Arrival and service must have at least one phase");
+
+		this.queueSize = queueSize;
+		this.maxDenials = maxDenials;
+		this.arrivalPhases = arrivalPhases;
+		this.servicePhases = servicePhases;
+	}
+
+	/**
+	 * Returns the position of the given state in the flat array
+	 * 
+	 * @param n jobs in queue
+	 * @param k denied jobs
+	 * @param h arrival phase
+	 * @param l service phase
+	 * @return index of the state
+	 */
+	public int index(int n, int k, int h, int l) {
+		return ((n * (maxDenials + 1) + k) * arrivalPhases + h) * servicePhases + l;
+	}
+
+	/**
+	 * @return number of states with the same queue length and the same number of
+	 *         denials, that is (H + 1) * (L + 1)
+	 */
+	public int phaseBlockSize() {
+		return arrivalPhases * servicePhases;
+	}
+
+	/**
+	 * @return number of states with the same queue length, that is (K + 1) * (H +
+	 *         1) * (L + 1)
+	 */
+	public int queueBlockSize() {
+		return (maxDenials + 1) * arrivalPhases * servicePhases;
+	}
+
+	/**
+	 * @return total number of extended states
+	 */
+	public int size() {
+		return (queueSize + 1) * queueBlockSize();
+	}
+
+	public int getQueueSize() {
+		return queueSize;
+	}
+
+	public int getMaxDenials() {
+		return maxDenials;
+	}
+
+	public int getArrivalPhases() {
+		return arrivalPhases;
+	}
+
+	public int getServicePhases() {
+		return servicePhases;
+	}
+
+}
@@ -0,0 +1,54 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Stationary distribution by the elimination of Grassmann, Taksar and Heyman.
+ * It is a variant of Gaussian elimination that uses no subtraction, so it is
+ * accurate even when the probabilities span many orders of magnitude. It costs
+ * O(n^3) operations on a dense copy of the matrix.
+ */
+public class GTHStationarySolver implements StationarySolver {
+
+	@Override
+	public double[] solve(double[][] transitionMatrix) {
+		int size = transitionMatrix.length;
+		double[][] a = new double[size][];
+		for (int i = 0; i < size; i++)
+			a[i] = transitionMatrix[i].clone();
+
+		// eliminate the states from the last one, censoring the chain on the
+		// remaining ones
+		for (int k = size - 1; k > 0; k--) {
+			double exit = 0.0;
+			for (int j = 0; j < k; j++)
+				exit += a[k][j];
+			if (exit <= 0.0)
+				throw new IllegalArgumentException("The chain is reducible: state " + k
+						+ " cannot reach any state with a lower index");
+			for (int i = 0; i < k; i++) {
+				double factor = a[i][k] / exit;
+				a[i][k] = factor;
+				if (factor == 0.0)
+					continue;
+				double[] row = a[i];
+				double[] eliminated = a[k];
+				for (int j = 0; j < k; j++)
+					row[j] += factor * eliminated[j];
+			}
+		}
+
+		double[] pi = new double[size];
+		pi[0] = 1.0;
+		double sum = 1.0;
+		for (int k = 1; k < size; k++) {
+			double value = 0.0;
+			for (int i = 0; i < k; i++)
+				value += pi[i] * a[i][k];
+			pi[k] = value;
+			sum += value;
+		}
+		for (int k = 0; k < size; k++)
+			pi[k] /= sum;
+		return pi;
+	}
+
+}
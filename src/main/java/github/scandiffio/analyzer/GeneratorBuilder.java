@@ -0,0 +1,165 @@
+package github.scandiffio.analyzer;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Builds the sparse generator of the queue CTMC from the exponential phases of
+ * the arrival and service distributions, as returned by
+ * {@link DistributionExtender#getExtendedProbs}.
+ * 
+ * Arrivals move the arrival phase from h to h+1; from the last phase H a job
+ * enters the queue and the phase restarts from 0. When the queue is full the
+ * job is lost and, if denials are counted, the number of denials k grows (jobs
+ * denied beyond K are not tracked). With one service phase a job leaves the
+ * queue at the service rate. With L+1 phases the job leaves the queue when its
+ * service starts (phase 0 to 1), goes through phases 1..L and the server goes
+ * back to phase 0 at the end of phase L.
+ */
+public class GeneratorBuilder {
+
+	private final ExtendedStateSpace stateSpace;
+	private final int size;
+	private final double[] arrivalDiagonal;
+	private final double[] serviceDiagonal;
+	private final Entries entries = new Entries();
+
+	private GeneratorBuilder(ExtendedStateSpace stateSpace) {
+		this.stateSpace = stateSpace;
+		this.size = stateSpace.size();
+		this.arrivalDiagonal = new double[size];
+		this.serviceDiagonal = new double[size];
+	}
+
+	/**
+	 * Builds the generator of the queue CTMC
+	 * 
+	 * @param stateSpace     layout of the extended states
+	 * @param arrivalLambdas rates of the arrival phases
+	 * @param serviceLambdas rates of the service phases
+	 * @param countDenials   true if jobs lost when the queue is full increase the
+	 *                       number of denials, false if they are just dropped
+	 * @return the generator
+	 */
+	public static SparseGenerator build(ExtendedStateSpace stateSpace, BigDecimal[] arrivalLambdas,
+			BigDecimal[] serviceLambdas, boolean countDenials) {
+
+		if (arrivalLambdas.length != stateSpace.getArrivalPhases()
+				|| serviceLambdas.length != stateSpace.getServicePhases())
+			throw new IllegalArgumentException("The number of phases must match the state space");
+
+		int N = stateSpace.getQueueSize();
+		int K = stateSpace.getMaxDenials();
+		int H = arrivalLambdas.length - 1;
+		int L = serviceLambdas.length - 1;
+		double[] a = new double[H + 1];
+		double[] s = new double[L + 1];
+		for (int h = 0; h <= H; h++)
+			a[h] = arrivalLambdas[h].doubleValue();
+		for (int l = 0; l <= L; l++)
+			s[l] = serviceLambdas[l].doubleValue();
+
+		GeneratorBuilder builder = new GeneratorBuilder(stateSpace);
+
+		for (int n = 0; n <= N; n++)
+			for (int k = 0; k <= K; k++)
+				for (int h = 0; h <= H; h++)
+					for (int l = 0; l <= L; l++) {
+						int from = stateSpace.index(n, k, h, l);
+
+						if (h < H)
+							builder.addArrival(from, stateSpace.index(n, k, h + 1, l), a[h]);
+						else if (n < N)
+							builder.addArrival(from, stateSpace.index(n + 1, k, 0, l), a[h]);
+						else if (!countDenials)
+							builder.addArrival(from, stateSpace.index(n, k, 0, l), a[h]);
+						else if (k < K)
+							builder.addArrival(from, stateSpace.index(n, k + 1, 0, l), a[h]);
+						else
+							builder.addArrival(from, -1, a[h]);
+
+						if (L == 0) {
+							if (n > 0)
+								builder.addService(from, stateSpace.index(n - 1, k, h, 0), s[0]);
+						} else if (l == 0) {
+							if (n > 0)
+								builder.addService(from, stateSpace.index(n - 1, k, h, 1), s[0]);
+						} else if (l < L)
+							builder.addService(from, stateSpace.index(n, k, h, l + 1), s[l]);
+						else
+							builder.addService(from, stateSpace.index(n, k, h, 0), s[l]);
+					}
+
+		return builder.toSparse();
+	}
+
+	/**
+	 * Adds an arrival transition. A negative destination means that the
+	 * probability leaves the tracked states.
+	 */
+	private void addArrival(int from, int to, double rate) {
+		arrivalDiagonal[from] -= rate;
+		if (to == from)
+			arrivalDiagonal[from] += rate;
+		else if (to >= 0)
+			entries.add(to, from, rate, 0.0);
+	}
+
+	private void addService(int from, int to, double rate) {
+		serviceDiagonal[from] -= rate;
+		if (to == from)
+			serviceDiagonal[from] += rate;
+		else
+			entries.add(to, from, 0.0, rate);
+	}
+
+	private SparseGenerator toSparse() {
+		int[] rowStart = new int[size + 1];
+		int[] columns = new int[entries.count];
+		double[] arrivalRates = new double[entries.count];
+		double[] serviceRates = new double[entries.count];
+
+		for (int e = 0; e < entries.count; e++)
+			rowStart[entries.rows[e] + 1]++;
+		for (int j = 0; j < size; j++)
+			rowStart[j + 1] += rowStart[j];
+
+		// counting sort by row, keeping the insertion order inside each row
+		int[] next = Arrays.copyOf(rowStart, size);
+		for (int e = 0; e < entries.count; e++) {
+			int position = next[entries.rows[e]]++;
+			columns[position] = entries.columns[e];
+			arrivalRates[position] = entries.arrivalRates[e];
+			serviceRates[position] = entries.serviceRates[e];
+		}
+
+		return new SparseGenerator(stateSpace, size, rowStart, columns, arrivalRates, serviceRates, arrivalDiagonal,
+				serviceDiagonal);
+	}
+
+	/**
+	 * Off-diagonal entries in coordinate format
+	 */
+	private static class Entries {
+		private int[] rows = new int[16];
+		private int[] columns = new int[16];
+		private double[] arrivalRates = new double[16];
+		private double[] serviceRates = new double[16];
+		private int count;
+
+		private void add(int row, int column, double arrivalRate, double serviceRate) {
+			if (count == rows.length) {
+				rows = Arrays.copyOf(rows, 2 * count);
+				columns = Arrays.copyOf(columns, 2 * count);
+				arrivalRates = Arrays.copyOf(arrivalRates, 2 * count);
+				serviceRates = Arrays.copyOf(serviceRates, 2 * count);
+			}
+			rows[count] = row;
+			columns[count] = column;
+			arrivalRates[count] = arrivalRate;
+			serviceRates[count] = serviceRate;
+			count++;
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+package github.scandiffio.analyzer;
+
+import java.util.Map;
+
+import org.oristool.models.gspn.chains.DTMCStationary;
+import org.oristool.models.gspn.chains.DTMCStationary.Builder;
+
+import com.google.common.graph.MutableValueGraph;
+import com.google.common.graph.ValueGraphBuilder;
+
+/**
+ * Stationary distribution computed by the DTMCStationary analysis of Sirio on a
+ * graph of the chain. Transitions with zero probability are not added to the
+ * graph.
+ */
+public class GraphStationarySolver implements StationarySolver {
+
+	@Override
+	public double[] solve(double[][] transitionMatrix) {
+		int size = transitionMatrix.length;
+
+		MutableValueGraph<Integer, Double> mvg = ValueGraphBuilder.directed().allowsSelfLoops(true)
+				.expectedNodeCount(size).build();
+		for (int i = 0; i < size; i++)
+			mvg.addNode(i);
+		for (int k = 0; k < size; k++)
+			for (int j = 0; j < size; j++)
+				if (transitionMatrix[k][j] != 0.0)
+					mvg.putEdgeValue(k, j, transitionMatrix[k][j]);
+
+		Builder<Integer> dtmcStBuilder = DTMCStationary.builder();
+		DTMCStationary<Integer> dtmcSt = dtmcStBuilder.build();
+		Map<Integer, Double> steadyStateMap = dtmcSt.apply(mvg);
+
+		double[] steadyState = new double[size];
+		for (int i = 0; i < size; i++)
+			steadyState[i] = steadyStateMap.getOrDefault(i, 0.0);
+		return steadyState;
+	}
+
+}
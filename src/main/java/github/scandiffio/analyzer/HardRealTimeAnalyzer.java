@@ -3,8 +3,11 @@ package github.scandiffio.analyzer;
 import java.math.BigDecimal;
 import java.util.List;
 
+import org.oristool.models.ValidationMessageCollector;
 import org.oristool.models.stpn.TransientSolution;
+import org.oristool.models.stpn.trans.RegTransient;
 import org.oristool.models.stpn.trans.TreeTransient;
+import org.oristool.models.stpn.trees.DeterministicEnablingState;
 import org.oristool.petrinet.Marking;
 import org.oristool.petrinet.PetriNet;
 
@@ -22,32 +25,86 @@ public class HardRealTimeAnalyzer {
 		return result;
 	}
 
-	public boolean checkSolutionForDeadline(TransientSolution solution, List<List<String>> tasksPlaces) {
+	/**
+	 * Runs Sirio's regenerative transient analysis. Each regeneration, a state in
+	 * which every general transition is newly enabled such as the release of a
+	 * periodic task, is explored once up to the next regenerations, and the
+	 * transient probabilities over the time bound are obtained by convolving the
+	 * kernels. For periodic nets the cost of the analysis is about the one of a
+	 * single period, whatever the time bound.
+	 *
+	 * @param petriNet       net to be analyzed
+	 * @param initialMarking initial marking
+	 * @param timeBound      analysis end time
+	 * @param timeStep       analysis time step
+	 * @return the transient probabilities from each regeneration
+	 */
+	public static TransientSolution<DeterministicEnablingState, Marking> runRegenerativeAnalysis(PetriNet petriNet,
+			Marking initialMarking, String timeBound, String timeStep) {
+		RegTransient analysis = RegTransient.builder().greedyPolicy(new BigDecimal(timeBound), BigDecimal.ZERO)
+				.timeStep(new BigDecimal(timeStep)).build();
+		return analysis.compute(petriNet, initialMarking);
+	}
+
+	/**
+	 * Runs the transient analysis with the regenerative method when Sirio can
+	 * apply it to the net, and with
+	 * {@link #runTransientAnalysis(PetriNet, Marking, String, String)} otherwise.
+	 * The regeneration points are found by the analysis itself; a net without any
+	 * is explored as a single tree, as the non-regenerative analysis does. The
+	 * result has the same layout as the one of the non-regenerative analysis: a
+	 * single row, from the initial marking.
+	 *
+	 * @param petriNet       net to be analyzed
+	 * @param initialMarking initial marking
+	 * @param timeBound      analysis end time
+	 * @param timeStep       analysis time step
+	 * @return the transient probabilities from the initial marking
+	 */
+	public static TransientSolution<Marking, Marking> runFastestTransientAnalysis(PetriNet petriNet,
+			Marking initialMarking, String timeBound, String timeStep) {
+		if (!RegTransient.builder().timeBound(BigDecimal.ONE).timeStep(BigDecimal.ONE).build().canAnalyze(petriNet,
+				new ValidationMessageCollector()))
+			return runTransientAnalysis(petriNet, initialMarking, timeBound, timeStep);
+
+		TransientSolution<DeterministicEnablingState, Marking> regenerative = runRegenerativeAnalysis(petriNet,
+				initialMarking, timeBound, timeStep);
+		int initial = regenerative.getRegenerations().indexOf(regenerative.getInitialRegeneration());
+		Marking marking = new Marking(initialMarking);
+		TransientSolution<Marking, Marking> result = new TransientSolution<Marking, Marking>(
+				regenerative.getTimeLimit(), regenerative.getStep(), List.of(marking),
+				regenerative.getColumnStates(), marking);
+		double[][][] values = result.getSolution();
+		for (int t = 0; t < values.length; t++)
+			System.arraycopy(regenerative.getSolution()[t][initial], 0, values[t][0], 0, values[t][0].length);
+		return result;
+	}
 
-		List<Marking> stateMarkings = solution.getColumnStates();
-		if (stateMarkings.isEmpty())
-			throw new IllegalArgumentException("Empty states");
-
-		Marking currentStateMarking = null;
-		boolean deadlineMiss = false;
-		int tokenSum = 0;
-		int i = stateMarkings.size() - 1;
-
-		while (i >= 0 && !deadlineMiss) { // start from the end. If there is a constraint violation, it is in the last
-											// explored states
-			currentStateMarking = stateMarkings.get(i);
-			for (List<String> taskPlaces : tasksPlaces) { // for each list of places. One list each task
-				tokenSum = 0;
-				for (String placeName : taskPlaces) // for each place
-					tokenSum += currentStateMarking.getTokens(placeName); // sum the number of tokens
-				if (tokenSum > 1) // if the sum is > 1, there are at least two tokens for the same task at the
-									// same time
-					deadlineMiss = true;
-				i--;
-			}
-		}
-		return deadlineMiss;
+	/**
+	 * Runs the transient analysis only if it is not in the cache
+	 *
+	 * @param petriNet       net to be analyzed
+	 * @param initialMarking initial marking
+	 * @param timeBound      analysis end time
+	 * @param timeStep       analysis time step
+	 * @param cache          cache of the analyses
+	 * @return the transient solution, equal to the one computed by
+	 *         {@link #runTransientAnalysis(PetriNet, Marking, String, String)}
+	 */
+	public static TransientSolution<Marking, Marking> runTransientAnalysis(PetriNet petriNet, Marking initialMarking,
+			String timeBound, String timeStep, TransientSolutionCache cache) {
+		return cache.analyze(petriNet, initialMarking, timeBound, timeStep);
+	}
 
+	/**
+	 * @param solution    transient solution of the net
+	 * @param tasksPlaces names of the places of each task
+	 * @return true if a task misses a deadline in a marking of the solution
+	 * @see DeadlineMissEvaluator
+	 */
+	@SuppressWarnings("unchecked")
+	public boolean checkSolutionForDeadline(TransientSolution solution, List<List<String>> tasksPlaces) {
+		return new DeadlineMissEvaluator(tasksPlaces).hasDeadlineMiss(solution);
 	}
 
 }
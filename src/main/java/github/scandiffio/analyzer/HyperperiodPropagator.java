@@ -0,0 +1,160 @@
+package github.scandiffio.analyzer;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+
+/**
+ * Long-horizon analysis of an equation solver when the cpu-free profile is
+ * periodic, as with periodic hard real-time tasks. The transfer matrix of one
+ * hyperperiod, which maps the distribution of the extended states at the
+ * beginning of a period to the one at its end, is computed once; whole periods
+ * are then skipped with vector-matrix products, or with the binary powers of
+ * the transfer matrix for long jumps. The fine-grained distribution along time
+ * is integrated only inside the periods that are asked for.
+ *
+ * The transfer matrix is dense, so this is meant for state spaces of up to a
+ * few thousands of extended states.
+ */
+public class HyperperiodPropagator {
+
+	private final EDSolver solver;
+	private final BigDecimal timeStep;
+	private final BigInteger hyperPeriod;
+	private final double[] periodCpuFree;
+	private final int size;
+	private final ArrayList<double[][]> powers = new ArrayList<double[][]>();
+
+	/**
+	 * Builds the transfer matrix of one hyperperiod with the integrator of the
+	 * solver
+	 *
+	 * @param solver        the equation solver to be propagated
+	 * @param timeStep      analysis time step
+	 * @param hyperPeriod   length of the period of the cpu-free profile
+	 * @param periodCpuFree probability of cpu free at each time step of one
+	 *                      period, hyperPeriod/timeStep +1 values
+	 */
+	public HyperperiodPropagator(EDSolver solver, BigDecimal timeStep, BigInteger hyperPeriod,
+			double[] periodCpuFree) {
+		this.solver = solver;
+		this.timeStep = timeStep;
+		this.hyperPeriod = hyperPeriod;
+		this.periodCpuFree = periodCpuFree.clone();
+		this.size = solver.getStateSpace().size();
+
+		double[][] identity = new double[size][size];
+		for (int i = 0; i < size; i++)
+			identity[i][i] = 1.0;
+		// row i is the distribution at the end of the period starting from state i
+		powers.add(solver.propagate(identity, timeStep, hyperPeriod, this.periodCpuFree));
+	}
+
+	/**
+	 * Advances a distribution of the extended states by whole periods
+	 *
+	 * @param state   distribution at the beginning of a period
+	 * @param periods number of periods to skip
+	 * @return the distribution after the given number of periods
+	 */
+	public double[] advance(double[] state, long periods) {
+		if (periods < 0)
+			throw new IllegalArgumentException("The number of periods cannot be negative");
+		if (state.length != size)
+			throw new IllegalArgumentException("The state must have " + size + " elements");
+
+		double[] current = state.clone();
+		double[] next = new double[size];
+		double[] swap;
+
+		if (periods <= size) {
+			// few periods: repeated products cost less than squaring the matrix
+			for (long p = 0; p < periods; p++) {
+				multiply(current, powers.get(0), next);
+				swap = current;
+				current = next;
+				next = swap;
+			}
+			return current;
+		}
+
+		for (int bit = 0; periods >> bit != 0; bit++) {
+			if ((periods >> bit & 1) == 0)
+				continue;
+			multiply(current, power(bit), next);
+			swap = current;
+			current = next;
+			next = swap;
+		}
+		return current;
+	}
+
+	/**
+	 * @param period index of the period, 0 for the first one
+	 * @return the distribution of the extended states at the beginning of the
+	 *         given period, starting from the initial state of the solver
+	 */
+	public double[] stateAtPeriod(long period) {
+		return advance(solver.getInitialState(), period);
+	}
+
+	/**
+	 * Integrates the given period step by step
+	 *
+	 * @param period index of the period, 0 for the first one
+	 * @return the distribution of the extended states at each time step of the
+	 *         period, indexed by [step][state]. Step 0 is the beginning of the
+	 *         period and the last step its end
+	 */
+	public double[][] samplePeriod(long period) {
+		double[] start = stateAtPeriod(period);
+		double[][] samples = new double[periodCpuFree.length][];
+		samples[0] = start.clone();
+		solver.getIntegrator().integrate(solver.getGenerator(), start, timeStep.doubleValue(), periodCpuFree,
+				periodCpuFree.length, (t, state) -> samples[t] = state.clone());
+		return samples;
+	}
+
+	/**
+	 * @return the transfer matrix of one period, indexed by [from][to]
+	 */
+	public double[][] getTransferMatrix() {
+		return powers.get(0);
+	}
+
+	public BigInteger getHyperPeriod() {
+		return hyperPeriod;
+	}
+
+	/**
+	 * @return the transfer matrix of 2^exponent periods, squaring the last one
+	 *         computed as needed
+	 */
+	private double[][] power(int exponent) {
+		while (powers.size() <= exponent) {
+			double[][] last = powers.get(powers.size() - 1);
+			double[][] square = new double[size][size];
+			for (int i = 0; i < size; i++)
+				multiply(last[i], last, square[i]);
+			powers.add(square);
+		}
+		return powers.get(exponent);
+	}
+
+	/**
+	 * Computes result = vector * matrix
+	 */
+	private void multiply(double[] vector, double[][] matrix, double[] result) {
+		for (int j = 0; j < size; j++)
+			result[j] = 0.0;
+		for (int i = 0; i < size; i++) {
+			double v = vector[i];
+			if (v == 0.0)
+				continue;
+			double[] row = matrix[i];
+			for (int j = 0; j < size; j++)
+				result[j] += v * row[j];
+		}
+	}
+
+}
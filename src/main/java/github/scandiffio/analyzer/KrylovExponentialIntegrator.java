@@ -0,0 +1,282 @@
+package github.scandiffio.analyzer;
+
+import java.util.Arrays;
+
+/**
+ * Propagation of the forward equations with the action of the matrix
+ * exponential. The cpu-free profile is split into runs of time steps where the
+ * probability changes less than a tolerance; on each run the generator is taken
+ * as constant, at the mean cpu-free probability of the run, and the
+ * distribution evolves as p(t + s) = p(t) * exp(s * Q).
+ *
+ * The action of the exponential is approximated on a Krylov subspace built by
+ * the Arnoldi process, in the style of Expokit: the exponential of the small
+ * Hessenberg matrix is computed by Pade approximation and one basis covers as
+ * much of the run as the local error estimate allows. The number of sparse
+ * products depends on the stiffness of each run and not on its length, so long
+ * quiet stretches of the profile cost a few Krylov steps, while the integrator
+ * steps finely only where the profile changes. The samples on the time grid are
+ * read from the basis and do not need any further product with the generator,
+ * but each of them is still combined from the basis, at a cost of m * size per
+ * sample: with an observer, the saving over a step-by-step integrator is in the
+ * products with the generator only. {@link #integrateFinal} has no observer, so
+ * it skips the samples and takes a single exponential step across a quiet run.
+ */
+public class KrylovExponentialIntegrator implements TransientIntegrator {
+
+	private static final double BREAKDOWN = 1e-12;
+
+	private final double cpuTolerance;
+	private final double errorTolerance;
+	private final int krylovDimension;
+	// Krylov steps and segments of the last integration, published at its end
+	// since the same integrator may run several integrations in parallel
+	private volatile int[] counts = new int[2];
+
+	/**
+	 * @param cpuTolerance    maximum difference of the cpu-free probability within
+	 *                        a run of time steps handled with a single generator
+	 * @param errorTolerance  error allowed on the distribution at each Krylov step
+	 * @param krylovDimension dimension of the Krylov subspace
+	 */
+	public KrylovExponentialIntegrator(double cpuTolerance, double errorTolerance, int krylovDimension) {
+		if (cpuTolerance < 0)
+			throw new IllegalArgumentException("The cpu tolerance cannot be negative");
+		if (errorTolerance <= 0)
+			throw new IllegalArgumentException("The error tolerance must be positive");
+		if (krylovDimension < 1)
+			throw new IllegalArgumentException("The Krylov dimension must be positive");
+		this.cpuTolerance = cpuTolerance;
+		this.errorTolerance = errorTolerance;
+		this.krylovDimension = krylovDimension;
+	}
+
+	@Override
+	public void integrate(SparseGenerator generator, double[] initialState, double timeStep, double[] cpuFreeProbs,
+			int timeBoundStep, StepObserver consumer) {
+		propagate(generator, initialState, timeStep, cpuFreeProbs, timeBoundStep, consumer);
+	}
+
+	/**
+	 * Integrates each column without reading any sample on the time grid but the
+	 * last one
+	 */
+	@Override
+	public void integrateFinal(SparseGenerator generator, double[] block, int width, double timeStep,
+			double[] cpuFreeProbs, int timeBoundStep) {
+		int size = generator.getSize();
+		double[] state = new double[size];
+		for (int c = 0; c < width; c++) {
+			for (int i = 0; i < size; i++)
+				state[i] = block[i * width + c];
+			propagate(generator, state, timeStep, cpuFreeProbs, timeBoundStep, null);
+			for (int i = 0; i < size; i++)
+				block[i * width + c] = state[i];
+		}
+	}
+
+	/**
+	 * Propagates the state along the time grid. Without a consumer only the state
+	 * at the last step is computed, in place of the initial one.
+	 */
+	private void propagate(SparseGenerator generator, double[] initialState, double timeStep, double[] cpuFreeProbs,
+			int timeBoundStep, StepObserver consumer) {
+
+		int size = initialState.length;
+		int m = Math.min(krylovDimension, size);
+		double[][] basis = new double[m + 1][size];
+		// Hessenberg matrix, augmented with two rows and columns for the error
+		// estimate
+		double[][] hessenberg = new double[m + 2][m + 2];
+		double[] state = initialState;
+		double[] output = new double[size];
+		double[] coefficients = new double[m];
+		double[] product = new double[m];
+
+		int krylovSteps = 0;
+		int segments = 0;
+		double tau = 0.0;
+		int first = 0;
+
+		while (first < timeBoundStep - 1) {
+			int last = CpuProfileSegments.end(cpuFreeProbs, first, timeBoundStep, cpuTolerance);
+			double cpuFree = CpuProfileSegments.mean(cpuFreeProbs, first, last);
+			segments++;
+
+			// times are relative to the start of the segment [first, last]
+			double end = (last - first) * timeStep;
+			double x = 0.0;
+			int nextSample = first + 1;
+
+			while (nextSample <= last) {
+				double beta = norm(state);
+				if (beta == 0.0) {
+					Arrays.fill(output, 0.0);
+					for (; consumer != null && nextSample <= last; nextSample++)
+						consumer.observe(nextSample, output);
+					break;
+				}
+
+				// Arnoldi process on the transposed generator, since the distribution is a
+				// row vector
+				for (double[] row : hessenberg)
+					Arrays.fill(row, 0.0);
+				for (int i = 0; i < size; i++)
+					basis[0][i] = state[i] / beta;
+				int dimension = m;
+				boolean happyBreakdown = false;
+				double averageNorm = 0.0;
+				for (int j = 0; j < m; j++) {
+					double[] w = basis[j + 1];
+					generator.multiply(basis[j], w, cpuFree);
+					for (int i = 0; i <= j; i++) {
+						double h = dot(basis[i], w);
+						hessenberg[i][j] = h;
+						axpy(-h, basis[i], w);
+					}
+					double h = norm(w);
+					if (h < BREAKDOWN * beta) {
+						dimension = j + 1;
+						happyBreakdown = true;
+						break;
+					}
+					hessenberg[j + 1][j] = h;
+					for (int i = 0; i < size; i++)
+						w[i] /= h;
+				}
+				if (!happyBreakdown) {
+					generator.multiply(basis[m], output, cpuFree);
+					averageNorm = norm(output);
+					hessenberg[m + 1][m] = 1.0;
+				}
+
+				// choose the step so that the error estimate is below the tolerance. The
+				// basis does not depend on the step, only the small exponential is recomputed
+				if (tau == 0.0 || tau > end - x)
+					tau = end - x;
+				double[][] exponential;
+				double error;
+				while (true) {
+					if (happyBreakdown) {
+						exponential = MatrixExponential.exp(hessenberg, tau, dimension);
+						error = 0.0;
+						break;
+					}
+					exponential = MatrixExponential.exp(hessenberg, tau, m + 2);
+					double error1 = beta * Math.abs(exponential[m][0]);
+					double error2 = beta * Math.abs(exponential[m + 1][0]) * averageNorm;
+					if (error1 > 10 * error2)
+						error = error2;
+					else if (error1 > error2)
+						error = error1 * error2 / (error1 - error2);
+					else
+						error = error1;
+					if (error <= errorTolerance)
+						break;
+					tau *= Math.max(0.2, 0.9 * Math.pow(errorTolerance / error, 1.0 / (m + 1)));
+				}
+				krylovSteps++;
+				boolean lastStep = x + tau >= end * (1 - 1e-12);
+				double stepEnd = lastStep ? end : x + tau;
+
+				// samples on the time grid within the step. The first one is read from the
+				// exponential at its own time, the next ones by repeated products with the
+				// exponential of the time step
+				int lastSample = lastStep ? last : first + (int) Math.floor(stepEnd / timeStep * (1 + 1e-12));
+				if (consumer != null && nextSample <= lastSample) {
+					double[][] firstExponential = MatrixExponential.exp(hessenberg,
+							(nextSample - first) * timeStep - x, dimension);
+					for (int i = 0; i < dimension; i++)
+						coefficients[i] = firstExponential[i][0];
+					double[][] stepExponential = nextSample < lastSample
+							? MatrixExponential.exp(hessenberg, timeStep, dimension)
+							: null;
+					for (; nextSample <= lastSample; nextSample++) {
+						combine(basis, coefficients, dimension, beta, output);
+						for (int i = 0; i < size; i++)
+							if (output[i] < 0.0)
+								output[i] = 0.0;
+						consumer.observe(nextSample, output);
+						if (nextSample < lastSample) {
+							for (int i = 0; i < dimension; i++) {
+								double sum = 0.0;
+								for (int j = 0; j < dimension; j++)
+									sum += stepExponential[i][j] * coefficients[j];
+								product[i] = sum;
+							}
+							double[] swap = coefficients;
+							coefficients = product;
+							product = swap;
+						}
+					}
+				}
+
+				nextSample = Math.max(nextSample, lastSample + 1);
+
+				for (int i = 0; i < dimension; i++)
+					coefficients[i] = exponential[i][0];
+				combine(basis, coefficients, dimension, beta, state);
+				if (!lastStep)
+					tau *= error > 0.0 ? Math.min(2.0, 0.9 * Math.pow(errorTolerance / error, 1.0 / (m + 1))) : 2.0;
+				x = stepEnd;
+			}
+			first = last;
+		}
+		if (consumer == null)
+			for (int i = 0; i < size; i++)
+				if (state[i] < 0.0)
+					state[i] = 0.0;
+		counts = new int[] { krylovSteps, segments };
+	}
+
+	private static void combine(double[][] basis, double[] coefficients, int dimension, double beta,
+			double[] result) {
+		Arrays.fill(result, 0.0);
+		for (int j = 0; j < dimension; j++)
+			axpy(beta * coefficients[j], basis[j], result);
+	}
+
+	private static double dot(double[] a, double[] b) {
+		double sum = 0.0;
+		for (int i = 0; i < a.length; i++)
+			sum += a[i] * b[i];
+		return sum;
+	}
+
+	private static double norm(double[] a) {
+		return Math.sqrt(dot(a, a));
+	}
+
+	private static void axpy(double alpha, double[] x, double[] y) {
+		for (int i = 0; i < x.length; i++)
+			y[i] += alpha * x[i];
+	}
+
+	/**
+	 * @return the number of Krylov steps taken by the last integration
+	 */
+	public int getKrylovSteps() {
+		return counts[0];
+	}
+
+	/**
+	 * @return the number of runs of the cpu-free profile handled by the last
+	 *         integration
+	 */
+	public int getSegments() {
+		return counts[1];
+	}
+
+	public double getCpuTolerance() {
+		return cpuTolerance;
+	}
+
+	public double getErrorTolerance() {
+		return errorTolerance;
+	}
+
+	public int getKrylovDimension() {
+		return krylovDimension;
+	}
+
+}
@@ -0,0 +1,111 @@
+package github.scandiffio.analyzer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Retained states kept off the heap, in a temporary file mapped in memory. The
+ * file is mapped in segments of whole rows, each of at most
+ * {@link #SEGMENT_BYTES} bytes, since a single mapping cannot exceed 2 GB; the
+ * operating system pages the rows in and out as they are used. The file is
+ * removed as soon as it is mapped, or when the JVM exits if the platform does
+ * not allow it.
+ */
+final class MappedStates extends RetainedStates {
+
+	static final int SEGMENT_BYTES = 1 << 28;
+
+	private final StoragePrecision precision;
+	private final int rowsPerSegment;
+	private final DoubleBuffer[] doubleSegments;
+	private final FloatBuffer[] floatSegments;
+
+	/**
+	 * @param steps     number of time steps
+	 * @param size      number of extended states
+	 * @param precision precision of the stored probabilities
+	 * @param directory directory of the temporary file, or null for the default
+	 *                  temporary directory
+	 */
+	MappedStates(int steps, int size, StoragePrecision precision, Path directory) {
+		super(steps, size);
+		this.precision = precision;
+		long rowBytes = bytes(1, size, precision);
+		if (rowBytes > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("A time step does not fit in a mapped segment");
+		this.rowsPerSegment = (int) Math.max(1, SEGMENT_BYTES / rowBytes);
+		int segments = (steps + rowsPerSegment - 1) / rowsPerSegment;
+		this.doubleSegments = precision == StoragePrecision.DOUBLE ? new DoubleBuffer[segments] : null;
+		this.floatSegments = precision == StoragePrecision.SINGLE ? new FloatBuffer[segments] : null;
+
+		try {
+			Path file = directory != null ? Files.createTempFile(directory, "states", ".bin")
+					: Files.createTempFile("states", ".bin");
+			try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				for (int s = 0; s < segments; s++) {
+					int rows = Math.min(rowsPerSegment, steps - s * rowsPerSegment);
+					MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE,
+							s * rowsPerSegment * rowBytes, rows * rowBytes);
+					segment.order(ByteOrder.nativeOrder());
+					if (doubleSegments != null)
+						doubleSegments[s] = segment.asDoubleBuffer();
+					else
+						floatSegments[s] = segment.asFloatBuffer();
+				}
+			}
+			try {
+				Files.delete(file);
+			} catch (IOException e) {
+				file.toFile().deleteOnExit();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	void put(int t, double[] state) {
+		int position = (t % rowsPerSegment) * size;
+		if (doubleSegments != null) {
+			doubleSegments[t / rowsPerSegment].put(position, state, 0, size);
+			return;
+		}
+		FloatBuffer segment = floatSegments[t / rowsPerSegment];
+		for (int i = 0; i < size; i++)
+			segment.put(position + i, (float) state[i]);
+	}
+
+	@Override
+	double get(int t, int state) {
+		int position = (t % rowsPerSegment) * size + state;
+		if (doubleSegments != null)
+			return doubleSegments[t / rowsPerSegment].get(position);
+		return floatSegments[t / rowsPerSegment].get(position);
+	}
+
+	@Override
+	void copy(int t, int from, double[] destination, int length) {
+		int position = (t % rowsPerSegment) * size + from;
+		if (doubleSegments != null) {
+			doubleSegments[t / rowsPerSegment].get(position, destination, 0, length);
+			return;
+		}
+		FloatBuffer segment = floatSegments[t / rowsPerSegment];
+		for (int i = 0; i < length; i++)
+			destination[i] = segment.get(position + i);
+	}
+
+	@Override
+	StoragePrecision getPrecision() {
+		return precision;
+	}
+
+}
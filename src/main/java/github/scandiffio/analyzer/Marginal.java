@@ -0,0 +1,112 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Marginal distributions that can be computed from the extended state vector of
+ * the equation solvers.
+ */
+public enum Marginal {
+
+	/**
+	 * Probability of having exactly n jobs in queue, n = 0..N
+	 */
+	QUEUE_LENGTH {
+		@Override
+		public int width(ExtendedStateSpace stateSpace) {
+			return stateSpace.getQueueSize() + 1;
+		}
+
+		@Override
+		public void compute(ExtendedStateSpace stateSpace, double[] state, double[] result) {
+			int block = stateSpace.queueBlockSize();
+			for (int n = 0; n <= stateSpace.getQueueSize(); n++) {
+				double sum = 0.0;
+				for (int i = n * block; i < (n + 1) * block; i++)
+					sum += state[i];
+				result[n] = sum;
+			}
+		}
+	},
+
+	/**
+	 * Probability of having exactly k denials, k = 0..K
+	 */
+	EXACTLY_K_DENIALS {
+		@Override
+		public int width(ExtendedStateSpace stateSpace) {
+			return stateSpace.getMaxDenials() + 1;
+		}
+
+		@Override
+		public void compute(ExtendedStateSpace stateSpace, double[] state, double[] result) {
+			int phases = stateSpace.phaseBlockSize();
+			int K = stateSpace.getMaxDenials();
+			for (int k = 0; k <= K; k++)
+				result[k] = 0.0;
+			for (int n = 0; n <= stateSpace.getQueueSize(); n++)
+				for (int k = 0; k <= K; k++) {
+					int base = stateSpace.index(n, k, 0, 0);
+					double sum = 0.0;
+					for (int i = base; i < base + phases; i++)
+						sum += state[i];
+					result[k] += sum;
+				}
+		}
+	},
+
+	/**
+	 * Probability of having at least k denials, k = 0..K, as returned by
+	 * {@link DenialEDSolver#getAtLeastKdenials()}
+	 */
+	AT_LEAST_K_DENIALS {
+		@Override
+		public int width(ExtendedStateSpace stateSpace) {
+			return stateSpace.getMaxDenials() + 1;
+		}
+
+		@Override
+		public void compute(ExtendedStateSpace stateSpace, double[] state, double[] result) {
+			EXACTLY_K_DENIALS.compute(stateSpace, state, result);
+			double below = 0.0;
+			for (int k = 0; k < result.length; k++) {
+				double exactly = result[k];
+				result[k] = 1.0 - below;
+				below += exactly;
+			}
+		}
+	},
+
+	/**
+	 * Probability that the task leaves the processor to the next priority level:
+	 * the probability of the first extended state, which {@link TaskSetAnalyzer}
+	 * multiplies into the cpu-free probabilities of the next level, as
+	 * {@link EDSolver#getExtendedProbability(int, int)} at index 0 does
+	 */
+	IDLE {
+		@Override
+		public int width(ExtendedStateSpace stateSpace) {
+			return 1;
+		}
+
+		@Override
+		public void compute(ExtendedStateSpace stateSpace, double[] state, double[] result) {
+			result[0] = state[0];
+		}
+	};
+
+	/**
+	 * @param stateSpace layout of the extended states
+	 * @return number of values of the marginal
+	 */
+	public abstract int width(ExtendedStateSpace stateSpace);
+
+	/**
+	 * Computes the marginal of the given state vector
+	 * 
+	 * @param stateSpace layout of the extended states
+	 * @param state      probability of each extended state
+	 * @param result     array of length {@link #width(ExtendedStateSpace)} where
+	 *                   the marginal is written
+	 */
+	public abstract void compute(ExtendedStateSpace stateSpace, double[] state, double[] result);
+
+}
@@ -0,0 +1,65 @@
+package github.scandiffio.analyzer;
+
+/**
+ * A step observer that keeps only one marginal distribution along time. With a
+ * sampling interval greater than one, only one step every samplingInterval is
+ * kept.
+ */
+public class MarginalRecorder implements StepObserver {
+
+	private final Marginal marginal;
+	private final int samplingInterval;
+	private ExtendedStateSpace stateSpace;
+	private double[][] values;
+
+	/**
+	 * Builds a recorder that keeps the marginal at every time step
+	 * 
+	 * @param marginal marginal to be recorded
+	 */
+	public MarginalRecorder(Marginal marginal) {
+		this(marginal, 1);
+	}
+
+	/**
+	 * Builds a recorder that keeps the marginal at steps 0, samplingInterval,
+	 * 2*samplingInterval, ...
+	 * 
+	 * @param marginal         marginal to be recorded
+	 * @param samplingInterval number of time steps between two recorded values
+	 */
+	public MarginalRecorder(Marginal marginal, int samplingInterval) {
+		if (samplingInterval <= 0)
+			throw new IllegalArgumentException("The sampling interval must be positive");
+		this.marginal = marginal;
+		this.samplingInterval = samplingInterval;
+	}
+
+	@Override
+	public void begin(ExtendedStateSpace stateSpace, int timeBoundStep) {
+		this.stateSpace = stateSpace;
+		this.values = new double[(timeBoundStep - 1) / samplingInterval + 1][marginal.width(stateSpace)];
+	}
+
+	@Override
+	public void observe(int step, double[] state) {
+		if (step % samplingInterval == 0)
+			marginal.compute(stateSpace, state, values[step / samplingInterval]);
+	}
+
+	/**
+	 * @return the recorded values, indexed by [step / samplingInterval][value]
+	 */
+	public double[][] getValues() {
+		return values;
+	}
+
+	public Marginal getMarginal() {
+		return marginal;
+	}
+
+	public int getSamplingInterval() {
+		return samplingInterval;
+	}
+
+}
@@ -0,0 +1,118 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Exponential of small dense matrices, by the diagonal Pade approximant of
+ * degree 6 with scaling and squaring.
+ */
+final class MatrixExponential {
+
+	private static final double[] PADE = { 1.0, 1.0 / 2, 5.0 / 44, 1.0 / 66, 1.0 / 792, 1.0 / 15840,
+			1.0 / 665280 };
+
+	private MatrixExponential() {
+		throw new UnsupportedOperationException("It is not allowed to instantiate objects of this class");
+	}
+
+	/**
+	 * @param a     square matrix, only its first size rows and columns are used
+	 * @param scale factor applied to the matrix
+	 * @param size  order of the matrix
+	 * @return exp(scale * a)
+	 */
+	static double[][] exp(double[][] a, double scale, int size) {
+		double norm = 0.0;
+		for (int i = 0; i < size; i++) {
+			double row = 0.0;
+			for (int j = 0; j < size; j++)
+				row += Math.abs(a[i][j]);
+			norm = Math.max(norm, row);
+		}
+		norm *= Math.abs(scale);
+
+		int squarings = norm > 0.5 ? (int) Math.ceil(Math.log(norm / 0.5) / Math.log(2)) : 0;
+		double factor = scale / Math.pow(2, squarings);
+
+		double[][] x = new double[size][size];
+		for (int i = 0; i < size; i++)
+			for (int j = 0; j < size; j++)
+				x[i][j] = a[i][j] * factor;
+
+		double[][] numerator = identity(size);
+		double[][] denominator = identity(size);
+		double[][] power = identity(size);
+		for (int k = 1; k < PADE.length; k++) {
+			power = multiply(power, x, size);
+			double sign = k % 2 == 0 ? 1.0 : -1.0;
+			for (int i = 0; i < size; i++)
+				for (int j = 0; j < size; j++) {
+					numerator[i][j] += PADE[k] * power[i][j];
+					denominator[i][j] += sign * PADE[k] * power[i][j];
+				}
+		}
+
+		double[][] result = solve(denominator, numerator, size);
+		for (int s = 0; s < squarings; s++)
+			result = multiply(result, result, size);
+		return result;
+	}
+
+	private static double[][] identity(int size) {
+		double[][] identity = new double[size][size];
+		for (int i = 0; i < size; i++)
+			identity[i][i] = 1.0;
+		return identity;
+	}
+
+	private static double[][] multiply(double[][] a, double[][] b, int size) {
+		double[][] c = new double[size][size];
+		for (int i = 0; i < size; i++)
+			for (int k = 0; k < size; k++) {
+				double aik = a[i][k];
+				if (aik != 0.0)
+					for (int j = 0; j < size; j++)
+						c[i][j] += aik * b[k][j];
+			}
+		return c;
+	}
+
+	/**
+	 * Solves a * x = b by Gaussian elimination with partial pivoting. Both
+	 * matrices are overwritten.
+	 */
+	private static double[][] solve(double[][] a, double[][] b, int size) {
+		for (int col = 0; col < size; col++) {
+			int pivot = col;
+			for (int i = col + 1; i < size; i++)
+				if (Math.abs(a[i][col]) > Math.abs(a[pivot][col]))
+					pivot = i;
+			double[] swap = a[col];
+			a[col] = a[pivot];
+			a[pivot] = swap;
+			swap = b[col];
+			b[col] = b[pivot];
+			b[pivot] = swap;
+
+			for (int i = col + 1; i < size; i++) {
+				double f = a[i][col] / a[col][col];
+				if (f == 0.0)
+					continue;
+				for (int j = col; j < size; j++)
+					a[i][j] -= f * a[col][j];
+				for (int j = 0; j < size; j++)
+					b[i][j] -= f * b[col][j];
+			}
+		}
+		for (int col = size - 1; col >= 0; col--) {
+			for (int j = 0; j < size; j++)
+				b[col][j] /= a[col][col];
+			for (int i = 0; i < col; i++) {
+				double f = a[i][col];
+				if (f != 0.0)
+					for (int j = 0; j < size; j++)
+						b[i][j] -= f * b[col][j];
+			}
+		}
+		return b;
+	}
+
+}
@@ -0,0 +1,143 @@
+package github.scandiffio.analyzer;
+
+/**
+ * First order Taylor expansion of the forward equations, like
+ * {@link EulerIntegrator}, with the state vectors stored as floats. Each step
+ * reads half the memory of the double precision one, while every probability is
+ * still summed in double precision and rounded once.
+ *
+ * The rounding is monitored with the mass balance of the distribution: an exact
+ * Euler step changes the total probability only by the probability leaving the
+ * tracked states, so the expected total is carried along in double precision
+ * and compared with the actual one at each step. The difference is the drift
+ * of the step; the distribution is then rescaled to the expected total, so that
+ * the rounding errors do not pile up in the mass. When the drift of a step
+ * exceeds the tolerance, the integration goes on in double precision from that
+ * step.
+ */
+public class MixedPrecisionEulerIntegrator implements TransientIntegrator {
+
+	private final double driftTolerance;
+	// statistics of the last integration, published at its end since the same
+	// integrator may run several integrations in parallel
+	private volatile Statistics statistics = new Statistics(0.0, 0.0, -1);
+
+	/**
+	 * @param driftTolerance maximum difference between the total probability and
+	 *                       its expected value after a step, before switching
+	 *                       to double precision
+	 */
+	public MixedPrecisionEulerIntegrator(double driftTolerance) {
+		if (driftTolerance <= 0)
+			throw new IllegalArgumentException("The drift tolerance must be positive");
+		this.driftTolerance = driftTolerance;
+	}
+
+	@Override
+	public void integrate(SparseGenerator generator, double[] initialState, double timeStep, double[] cpuFreeProbs,
+			int timeBoundStep, StepObserver consumer) {
+
+		int size = initialState.length;
+		float[] pPrevious = new float[size];
+		float[] pCurrent = new float[size];
+		float[] pSwap;
+		double[] output = new double[size];
+
+		double expected = 0.0;
+		for (int i = 0; i < size; i++) {
+			pCurrent[i] = (float) initialState[i];
+			expected += initialState[i];
+		}
+		double maxDrift = 0.0;
+		double accumulatedDrift = 0.0;
+		int fallbackStep = -1;
+
+		for (int t = 1; t < timeBoundStep; t++) {
+			pSwap = pPrevious;
+			pPrevious = pCurrent;
+			pCurrent = pSwap;
+
+			double cpuFree = cpuFreeProbs[t - 1];
+			expected -= timeStep * generator.loss(pPrevious, cpuFree);
+			double mass = generator.eulerStep(pPrevious, pCurrent, timeStep, cpuFree);
+			double drift = Math.abs(mass - expected);
+			maxDrift = Math.max(maxDrift, drift);
+			accumulatedDrift += drift;
+
+			double scale = mass > 0.0 ? expected / mass : 1.0;
+			for (int i = 0; i < size; i++) {
+				pCurrent[i] = (float) (pCurrent[i] * scale);
+				output[i] = pCurrent[i];
+			}
+			consumer.observe(t, output);
+
+			if (drift > driftTolerance) {
+				fallbackStep = t;
+				integrateDouble(generator, output, timeStep, cpuFreeProbs, t, timeBoundStep, consumer);
+				break;
+			}
+		}
+		statistics = new Statistics(maxDrift, accumulatedDrift, fallbackStep);
+	}
+
+	/**
+	 * Goes on with the double precision Euler step from step first
+	 */
+	private static void integrateDouble(SparseGenerator generator, double[] state, double timeStep,
+			double[] cpuFreeProbs, int first, int timeBoundStep, StepObserver consumer) {
+
+		double[] pPrevious = new double[state.length];
+		double[] pCurrent = state;
+		double[] pSwap;
+
+		for (int t = first + 1; t < timeBoundStep; t++) {
+			pSwap = pPrevious;
+			pPrevious = pCurrent;
+			pCurrent = pSwap;
+
+			generator.eulerStep(pPrevious, pCurrent, timeStep, cpuFreeProbs[t - 1]);
+			consumer.observe(t, pCurrent);
+		}
+	}
+
+	/**
+	 * @return the largest drift of a single precision step of the last
+	 *         integration
+	 */
+	public double getMaxDrift() {
+		return statistics.maxDrift;
+	}
+
+	/**
+	 * @return the sum of the drifts of the single precision steps of the last
+	 *         integration, which bounds the probability moved by the rescaling
+	 */
+	public double getAccumulatedDrift() {
+		return statistics.accumulatedDrift;
+	}
+
+	/**
+	 * @return the step from which the last integration switched to double
+	 *         precision, -1 if it did not
+	 */
+	public int getFallbackStep() {
+		return statistics.fallbackStep;
+	}
+
+	public double getDriftTolerance() {
+		return driftTolerance;
+	}
+
+	private static final class Statistics {
+		private final double maxDrift;
+		private final double accumulatedDrift;
+		private final int fallbackStep;
+
+		Statistics(double maxDrift, double accumulatedDrift, int fallbackStep) {
+			this.maxDrift = maxDrift;
+			this.accumulatedDrift = accumulatedDrift;
+			this.fallbackStep = fallbackStep;
+		}
+	}
+
+}
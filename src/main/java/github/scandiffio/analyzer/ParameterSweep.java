@@ -0,0 +1,322 @@
+package github.scandiffio.analyzer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+
+import github.scandiffio.function.FunctionBuilder;
+import github.scandiffio.function.FunctionInterface;
+import github.scandiffio.task.SoftRealTimeTask;
+
+/**
+ * What-if study of one soft real-time task over a grid of parameters. Each
+ * point of the grid fixes the queue size, the maximum number of denials, the
+ * coefficients of variation of the arrival and service distributions, the
+ * priority of the task and the time step of the analysis; the task is analyzed
+ * together with a fixed set of background tasks.
+ *
+ * The points run in parallel on a work-stealing pool. The hard real-time
+ * cpu-free profile and the background levels are analyzed once for each time
+ * step, so each point only analyzes the studied task, with the cpu-free
+ * probabilities left by the background tasks of higher or equal priority. The
+ * distributions are built once for each coefficient of variation and shared by
+ * all the points that use them. The analyses go through a
+ * {@link SolverResultCache}, so points that differ only in parameters a queue
+ * analysis does not depend on, such as the maximum number of denials, share it.
+ * Each point writes one row of the result table as soon as it completes; only
+ * the results held by the cache are kept in memory.
+ */
+public class ParameterSweep {
+
+	private static final String HEADER = "Time step;Queue size;Max denials;Arrival CV;Service CV;Priority;"
+			+ "Mean jobs in queue;Queue full;Max queue full;At least one denial";
+
+	public static final int DEFAULT_CACHE_ENTRIES = 16;
+
+	private final Function<BigDecimal, double[]> hardCpuFree;
+	private final BigInteger timeBound;
+	private final double arrivalMean;
+	private final double serviceMean;
+	private final TaskSetEntry[] background;
+	// the background levels are analyzed by the first point that needs them,
+	// outside the map, while the other points of the same time step wait
+	private final ConcurrentHashMap<BigDecimal, CompletableFuture<BackgroundLevels>> backgroundLevels =
+			new ConcurrentHashMap<BigDecimal, CompletableFuture<BackgroundLevels>>();
+	private final ConcurrentHashMap<Double, FunctionInterface> arrivalDistributions =
+			new ConcurrentHashMap<Double, FunctionInterface>();
+	private final ConcurrentHashMap<Double, FunctionInterface> serviceDistributions =
+			new ConcurrentHashMap<Double, FunctionInterface>();
+
+	private int[] queueSizes = { 4 };
+	private int[] maxDenials = { 5 };
+	private double[] arrivalCoefficients = { 1.0 };
+	private double[] serviceCoefficients = { 1.0 };
+	private int[] priorities = { 1 };
+	private BigDecimal[] timeSteps = { new BigDecimal("0.1") };
+	private SolverResultCache cache = new SolverResultCache(DEFAULT_CACHE_ENTRIES);
+
+	/**
+	 * @param hardCpuFree probability that the hard real-time tasks are not using
+	 *                    the processor, as a function of the time step. It is
+	 *                    called once for each time step of the sweep
+	 * @param timeBound   analysis end time
+	 * @param arrivalMean mean of the arrival distribution of the studied task
+	 * @param serviceMean mean of the service distribution of the studied task
+	 * @param background  soft real-time tasks that share the processor with the
+	 *                    studied task in every point
+	 */
+	public ParameterSweep(Function<BigDecimal, double[]> hardCpuFree, BigInteger timeBound, double arrivalMean,
+			double serviceMean, TaskSetEntry... background) {
+		if (arrivalMean <= 0 || serviceMean <= 0)
+			throw new IllegalArgumentException("Means must be positive");
+		this.hardCpuFree = hardCpuFree;
+		this.timeBound = timeBound;
+		this.arrivalMean = arrivalMean;
+		this.serviceMean = serviceMean;
+		this.background = background.clone();
+		Arrays.sort(this.background, Comparator.comparing(entry -> entry.getTask().getPriority()));
+	}
+
+	public ParameterSweep setQueueSizes(int... queueSizes) {
+		for (int value : queueSizes)
+			if (value <= 0)
+				throw new IllegalArgumentException("QueueSize must be positive");
+		this.queueSizes = nonEmpty(queueSizes.clone());
+		return this;
+	}
+
+	public ParameterSweep setMaxDenials(int... maxDenials) {
+		for (int value : maxDenials)
+			if (value <= 0)
+				throw new IllegalArgumentException("MaxDenials must be positive");
+		this.maxDenials = nonEmpty(maxDenials.clone());
+		return this;
+	}
+
+	public ParameterSweep setArrivalCoefficientsOfVariation(double... coefficients) {
+		this.arrivalCoefficients = positive(coefficients.clone());
+		return this;
+	}
+
+	public ParameterSweep setServiceCoefficientsOfVariation(double... coefficients) {
+		this.serviceCoefficients = positive(coefficients.clone());
+		return this;
+	}
+
+	public ParameterSweep setPriorities(int... priorities) {
+		this.priorities = nonEmpty(priorities.clone());
+		return this;
+	}
+
+	public ParameterSweep setTimeSteps(BigDecimal... timeSteps) {
+		if (timeSteps.length == 0)
+			throw new IllegalArgumentException("At least one value is required");
+		BigDecimal[] values = new BigDecimal[timeSteps.length];
+		for (int i = 0; i < values.length; i++) {
+			if (timeSteps[i].signum() <= 0)
+				throw new IllegalArgumentException("TimeStep must be positive");
+			// equal time steps with a different scale, such as 0.1 and 0.10, share
+			// their background levels
+			values[i] = timeSteps[i].stripTrailingZeros();
+		}
+		this.timeSteps = values;
+		return this;
+	}
+
+	/**
+	 * Sets the cache of the queue and denial analyses, by default a cache of
+	 * {@link #DEFAULT_CACHE_ENTRIES} results kept in memory. A cache with an
+	 * on-disk tier lets a later sweep reuse the analyses of this one.
+	 *
+	 * @param cache cache of the analyses
+	 * @return this sweep
+	 */
+	public ParameterSweep setCache(SolverResultCache cache) {
+		if (cache == null)
+			throw new IllegalArgumentException("The cache must not be null");
+		this.cache = cache;
+		return this;
+	}
+
+	/**
+	 * Runs all the points of the grid and writes one row for each of them, in
+	 * order of completion. The quantities are taken at the time bound, except
+	 * for the maximum probability of a full queue, which is taken along the whole
+	 * analysis.
+	 *
+	 * @param table       destination of the result table
+	 * @param parallelism number of worker threads
+	 * @return the number of analyzed points
+	 * @throws IOException if the table cannot be written
+	 */
+	public int run(Writer table, int parallelism) throws IOException {
+		if (parallelism < 1)
+			throw new IllegalArgumentException("Parallelism must be positive");
+
+		ArrayList<ForkJoinTask<?>> points = new ArrayList<ForkJoinTask<?>>();
+		for (BigDecimal timeStep : timeSteps)
+			for (int queueSize : queueSizes)
+				for (int denials : maxDenials)
+					for (double arrivalCv : arrivalCoefficients)
+						for (double serviceCv : serviceCoefficients)
+							for (int priority : priorities)
+								points.add(ForkJoinTask.adapt(() -> analyzePoint(table, timeStep, queueSize,
+										denials, arrivalCv, serviceCv, priority)));
+
+		table.write(HEADER);
+		table.write("\n");
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		try {
+			pool.invoke(ForkJoinTask.adapt(() -> {
+				ForkJoinTask.invokeAll(points);
+			}));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		} finally {
+			pool.shutdown();
+		}
+		table.flush();
+		return points.size();
+	}
+
+	private void analyzePoint(Writer table, BigDecimal timeStep, int queueSize, int denials, double arrivalCv,
+			double serviceCv, int priority) {
+
+		BackgroundLevels levels = backgroundLevels(timeStep);
+		FunctionInterface arrival = arrivalDistributions.computeIfAbsent(arrivalCv,
+				cv -> FunctionBuilder.createFunction(cv, arrivalMean));
+		FunctionInterface service = serviceDistributions.computeIfAbsent(serviceCv,
+				cv -> FunctionBuilder.createFunction(cv, serviceMean));
+
+		// as in TaskSetAnalyzer, the studied task comes after the background tasks
+		// of the same priority
+		int level = 0;
+		while (level < background.length && background[level].getTask().getPriority() <= priority)
+			level++;
+
+		SolverParametersContainer parameters = new SolverParametersContainer(BigInteger.valueOf(queueSize),
+				BigInteger.valueOf(denials), BigInteger.ZERO, BigInteger.ZERO);
+		SolverResult queue = cache.analyzeQueue(arrival, service, parameters, timeStep, timeBound,
+				levels.queueCpuFree[level]);
+		SolverResult atLeast = cache.analyzeDenials(arrival, service, parameters, timeStep, timeBound,
+				levels.denialCpuFree[level]);
+		int last = queue.getSamples() - 1;
+
+		double meanJobs = 0.0;
+		for (int n = 0; n <= queueSize; n++)
+			meanJobs += n * queue.getProbability(last, n);
+		double maxFull = 0.0;
+		for (int t = 0; t <= last; t++)
+			maxFull = Math.max(maxFull, queue.getProbability(t, queueSize));
+
+		String row = timeStep.toPlainString() + ";" + queueSize + ";" + denials + ";" + arrivalCv + ";" + serviceCv + ";" + priority
+				+ ";" + meanJobs + ";" + queue.getProbability(last, queueSize) + ";" + maxFull + ";"
+				+ atLeast.getAtLeastProbability(last, 1) + "\n";
+		synchronized (table) {
+			try {
+				table.write(row);
+				table.flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * @return the background levels of the time step, analyzed by the first
+	 *         caller and awaited by the others
+	 */
+	private BackgroundLevels backgroundLevels(BigDecimal timeStep) {
+		CompletableFuture<BackgroundLevels> created = new CompletableFuture<BackgroundLevels>();
+		CompletableFuture<BackgroundLevels> levels = backgroundLevels.putIfAbsent(timeStep, created);
+		if (levels == null) {
+			try {
+				created.complete(analyzeBackground(timeStep));
+			} catch (RuntimeException | Error e) {
+				// a later run analyzes the levels again
+				backgroundLevels.remove(timeStep, created);
+				created.completeExceptionally(e);
+				throw e;
+			}
+			return created.join();
+		}
+		try {
+			return levels.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+
+	/**
+	 * Analyzes the background tasks level by level, as
+	 * {@link TaskSetAnalyzer#analyzeQueues()} and
+	 * {@link TaskSetAnalyzer#analyzeDenials()} do
+	 */
+	private BackgroundLevels analyzeBackground(BigDecimal timeStep) {
+		BackgroundLevels levels = new BackgroundLevels(background.length);
+		levels.queueCpuFree[0] = hardCpuFree.apply(timeStep);
+		levels.denialCpuFree[0] = levels.queueCpuFree[0];
+		for (int i = 0; i < background.length; i++) {
+			SoftRealTimeTask task = background[i].getTask();
+			SolverParametersContainer parameters = background[i].getParameterContainer();
+			SolverResult queue = cache.analyzeQueue(task.getArrivalDistribution(), task.getServiceDistribution(),
+					parameters, timeStep, timeBound, levels.queueCpuFree[i]);
+			levels.queueCpuFree[i + 1] = nextCpuFree(levels.queueCpuFree[i], queue);
+			SolverResult denials = cache.analyzeDenials(task.getArrivalDistribution(), task.getServiceDistribution(),
+					parameters, timeStep, timeBound, levels.denialCpuFree[i]);
+			levels.denialCpuFree[i + 1] = nextCpuFree(levels.denialCpuFree[i], denials);
+		}
+		return levels;
+	}
+
+	private static double[] nextCpuFree(double[] cpuFree, SolverResult result) {
+		double[] next = new double[cpuFree.length];
+		for (int t = 0; t < next.length; t++)
+			next[t] = cpuFree[t] * result.getIdleProbability(t);
+		return next;
+	}
+
+	/**
+	 * Cpu-free probabilities left by the first background levels to the next
+	 * one, in the queue and in the denial analyses. Index 0 is the hard real-time
+	 * profile.
+	 */
+	private static final class BackgroundLevels {
+		private final double[][] queueCpuFree;
+		private final double[][] denialCpuFree;
+
+		BackgroundLevels(int levels) {
+			this.queueCpuFree = new double[levels + 1][];
+			this.denialCpuFree = new double[levels + 1][];
+		}
+	}
+
+	private static int[] nonEmpty(int[] values) {
+		if (values.length == 0)
+			throw new IllegalArgumentException("At least one value is required");
+		return values;
+	}
+
+	private static double[] positive(double[] values) {
+		if (values.length == 0)
+			throw new IllegalArgumentException("At least one value is required");
+		for (double value : values)
+			if (value <= 0)
+				throw new IllegalArgumentException("Coefficients of variation must be positive");
+		return values;
+	}
+
+}
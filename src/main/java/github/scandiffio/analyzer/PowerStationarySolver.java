@@ -0,0 +1,78 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Stationary distribution by power iteration, pi = pi * P, starting from the
+ * uniform distribution. Each iteration costs one vector-matrix product; the
+ * chain must be aperiodic for the iteration to converge.
+ */
+public class PowerStationarySolver implements StationarySolver {
+
+	private final double tolerance;
+	private final int maxIterations;
+	// published once at the end of each solution, since the same solver may serve
+	// several analyses in parallel
+	private volatile int iterations;
+
+	/**
+	 * @param tolerance     the iteration stops when the L1 distance between two
+	 *                      consecutive vectors is below this value
+	 * @param maxIterations maximum number of iterations
+	 */
+	public PowerStationarySolver(double tolerance, int maxIterations) {
+		if (tolerance <= 0)
+			throw new IllegalArgumentException("The tolerance must be positive");
+		if (maxIterations < 1)
+			throw new IllegalArgumentException("The maximum number of iterations must be positive");
+		this.tolerance = tolerance;
+		this.maxIterations = maxIterations;
+	}
+
+	@Override
+	public double[] solve(double[][] transitionMatrix) {
+		int size = transitionMatrix.length;
+		double[] pi = new double[size];
+		double[] next = new double[size];
+		double[] swap;
+		for (int i = 0; i < size; i++)
+			pi[i] = 1.0 / size;
+
+		for (int iteration = 1; iteration <= maxIterations; iteration++) {
+			for (int j = 0; j < size; j++)
+				next[j] = 0.0;
+			for (int i = 0; i < size; i++) {
+				double p = pi[i];
+				if (p == 0.0)
+					continue;
+				double[] row = transitionMatrix[i];
+				for (int j = 0; j < size; j++)
+					next[j] += p * row[j];
+			}
+
+			double sum = 0.0;
+			for (int j = 0; j < size; j++)
+				sum += next[j];
+			double distance = 0.0;
+			for (int j = 0; j < size; j++) {
+				next[j] /= sum;
+				distance += Math.abs(next[j] - pi[j]);
+			}
+			swap = pi;
+			pi = next;
+			next = swap;
+			if (distance < tolerance) {
+				iterations = iteration;
+				return pi;
+			}
+		}
+		iterations = maxIterations;
+		throw new IllegalStateException("Power iteration did not converge in " + maxIterations + " iterations");
+	}
+
+	/**
+	 * @return the number of iterations of the last solution
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+}
@@ -8,22 +8,16 @@ import github.scandiffio.function.FunctionInterface;
 /**
  * This is an analyzer for queues, based on differential equations.
  */
-public class QueueEDSolver {
+public class QueueEDSolver extends EDSolver {
 
 	private double[][][][] pExtendedAlongTime;
-	private double[][] stateProbabilitiesAlongTime;
 	private double[] initialElementsDistribution;
-	private double[] pArrival;
-	private double[] pService;
-	private BigDecimal[] arrivalLambdas;
-	private BigDecimal[] serviceLambdas;
 	private BigInteger queueSize;
 
 	public QueueEDSolver(FunctionInterface arrivalDistribution, FunctionInterface serviceDistribution,
 			BigInteger queueSize, double[] initialQueueDistribution) {
 
-		if (queueSize.intValue() <= 0)
-			throw new IllegalArgumentException("QueueSize must be positive");
+		super(arrivalDistribution, serviceDistribution, queueSize.intValue(), 0);
 
 		if (initialQueueDistribution.length != queueSize.intValue() + 1)
 			throw new IllegalArgumentException(
@@ -42,10 +36,6 @@ public class QueueEDSolver {
 
 		this.queueSize = queueSize;
 		this.initialElementsDistribution = initialQueueDistribution.clone();
-		this.arrivalLambdas = DistributionExtender.getExtendedProbs(arrivalDistribution);
-		this.serviceLambdas = DistributionExtender.getExtendedProbs(serviceDistribution);
-		this.pArrival = new double[arrivalLambdas.length];
-		this.pService = new double[serviceLambdas.length];
 
 	}
 
@@ -77,197 +67,78 @@ public class QueueEDSolver {
 	}
 
 	public QueueEDSolver analyze(BigDecimal timeStep, BigInteger timeBound, double[] cpuFreeProbs) {
+		this.pExtendedAlongTime = null;
+		solve(timeStep, timeBound, cpuFreeProbs, true, new StepObserver[0]);
+		return this;
+	}
 
-		int timeBoundStep = (int) (timeBound.intValue() / timeStep.doubleValue()) + 1;
-
-		if (timeBoundStep != cpuFreeProbs.length)
-			throw new IllegalArgumentException("CpuProbabilities.length must be equal to timeBound/timeStep +1");
-
-		for (double val : cpuFreeProbs)
-			if (val < 0 || val > 1.01)
-				throw new IllegalArgumentException("CpuProbabilities must in the range [0,1]. Got " + val);
-
-		for (int i = 0; i < pArrival.length; i++)
-			this.pArrival[i] = taylorFirstOrderExpansion(this.arrivalLambdas[i], timeStep.doubleValue());
-
-		for (int i = 0; i < pService.length; i++)
-			this.pService[i] = taylorFirstOrderExpansion(this.serviceLambdas[i], timeStep.doubleValue());
-
-		int N = queueSize.intValue();
-		int H = pArrival.length - 1;
-		int L = pService.length - 1;
-		this.stateProbabilitiesAlongTime = new double[timeBoundStep][N + 1];
-		this.pExtendedAlongTime = new double[timeBoundStep][N + 1][H + 1][L + 1];
-		double[][][] pPrevious;
-		double[][][] pCurrent = new double[N + 1][pArrival.length][pService.length];
-
-		for (int i = 0; i < initialElementsDistribution.length; i++) {
-			this.pExtendedAlongTime[0][i][0][0] = initialElementsDistribution[i];
-			this.stateProbabilitiesAlongTime[0][i] = initialElementsDistribution[i];
-			pCurrent[i][0][0] = initialElementsDistribution[i];
-
-		}
-
-		double pCpuFree;
-
-		for (int t = 1; t < timeBoundStep; t++) {
-			pPrevious = pCurrent;
-			pCurrent = new double[N + 1][pArrival.length][pService.length];
-			pCpuFree = cpuFreeProbs[t - 1];
-
-			if (L == 0) { // servizio con una sola transizione
-				pCurrent[0][0][0] = pPrevious[0][0][0] + pPrevious[1][0][0] * pCpuFree * pService[0]
-						- pPrevious[0][0][0] * pArrival[0];
-
-				for (int h = 1; h <= H; h++)
-					pCurrent[0][h][0] = pPrevious[0][h][0] + pPrevious[1][h][0] * pCpuFree * pService[0]
-							+ pPrevious[0][h - 1][0] * pArrival[h - 1] - pPrevious[0][h][0] * pArrival[h];
-
-				for (int n = 1; n < N; n++)
-					for (int h = 1; h <= H; h++)
-						pCurrent[n][h][0] = pPrevious[n][h][0] + pPrevious[n][h - 1][0] * pArrival[h - 1]
-								+ pPrevious[n + 1][h][0] * pCpuFree * pService[0]
-								- pPrevious[n][h][0] * (pArrival[h] + pCpuFree * pService[0]);
-
-				for (int n = 1; n < N; n++)
-					pCurrent[n][0][0] = pPrevious[n][0][0] + pPrevious[n - 1][H][0] * pArrival[H]
-							+ pPrevious[n + 1][0][0] * pCpuFree * pService[0]
-							- pPrevious[n][0][0] * (pArrival[0] + pCpuFree * pService[0]);
-
-				pCurrent[N][0][0] = pPrevious[N][0][0] + pPrevious[N - 1][H][0] * pArrival[H]
-						+ pPrevious[N][H][0] * pArrival[H]
-						- pPrevious[N][0][0] * (pArrival[0] + pCpuFree * pService[0]);
-
-				for (int h = 1; h <= H; h++)
-					pCurrent[N][h][0] = pPrevious[N][h][0] + pPrevious[N][h - 1][0] * pArrival[h - 1]
-							- pPrevious[N][h][0] * (pArrival[h] + pCpuFree * pService[0]);
-
-			} else { // servizio in almeno 2 fasi
-
-				pCurrent[0][0][0] = pPrevious[0][0][0] + pPrevious[0][0][L] * pCpuFree * pService[L]
-						- pPrevious[0][0][0] * pArrival[0];
-
-				pCurrent[0][0][1] = pPrevious[0][0][1] + pPrevious[1][0][0] * pCpuFree * pService[0]
-						- pPrevious[0][0][1] * (pArrival[0] + pCpuFree * pService[1]);
-
-				for (int l = 2; l <= L; l++)
-					pCurrent[0][0][l] = pPrevious[0][0][l] + pPrevious[0][0][l - 1] * pCpuFree * pService[l - 1]
-							- pPrevious[0][0][l] * (pArrival[0] + pCpuFree * pService[l]);
-
-				for (int h = 1; h <= H; h++)
-					pCurrent[N][h][1] = pPrevious[N][h][1] + pPrevious[N][h - 1][1] * pArrival[h - 1]
-							- pPrevious[N][h][1] * (pArrival[h] + pCpuFree * pService[1]);
-
-				for (int h = 1; h <= H; h++)
-					pCurrent[0][h][0] = pPrevious[0][h][0] + pPrevious[0][h - 1][0] * pArrival[h - 1]
-							+ pPrevious[0][h][L] * pCpuFree * pService[L] - pPrevious[0][h][0] * pArrival[h];
-
-				for (int n = 0; n < N; n++) {
-					for (int h = 1; h <= H; h++) {
-						pCurrent[n][h][1] = pPrevious[n][h][1] + pPrevious[n][h - 1][1] * pArrival[h - 1]
-								+ pPrevious[n + 1][h][0] * pCpuFree * pService[0]
-								- pPrevious[n][h][1] * (pArrival[h] + pCpuFree * pService[1]);
-					}
-				}
-
-				for (int n = 1; n < N; n++)
-					pCurrent[n][0][0] = pPrevious[n][0][0] + pPrevious[n - 1][H][0] * pArrival[H]
-							+ pPrevious[n][0][L] * pCpuFree * pService[L]
-							- pPrevious[n][0][0] * (pArrival[0] + pCpuFree * pService[0]);
-
-				for (int n = 1; n < N; n++) {
-					for (int l = 2; l <= L; l++) {
-						pCurrent[n][0][l] = pPrevious[n][0][l] + pPrevious[n][0][l - 1] * pCpuFree * pService[l - 1]
-								+ pPrevious[n - 1][H][l] * pArrival[H]
-								- pPrevious[n][0][l] * (pArrival[0] + pCpuFree * pService[l]);
-					}
-				}
-
-				pCurrent[N][0][1] = pPrevious[N][0][1] + pPrevious[N - 1][H][1] * pArrival[H]
-						+ pPrevious[N][H][1] * pArrival[H]
-						- pPrevious[N][0][1] * (pArrival[0] + pCpuFree * pService[1]);
-
-				pCurrent[N][0][0] = pPrevious[N][0][0] + pPrevious[N][H][0] * pArrival[H]
-						+ pPrevious[N - 1][H][0] * pArrival[H] + pPrevious[N][0][L] * pCpuFree * pService[L]
-						- pPrevious[N][0][0] * (pArrival[0] + pCpuFree * pService[0]);
-
-				for (int l = 2; l <= L; l++)
-					pCurrent[N][0][l] = pPrevious[N][0][l] + pPrevious[N][H][l] * pArrival[H]
-							+ pPrevious[N - 1][H][l] * pArrival[H] + pPrevious[N][0][l - 1] * pCpuFree * pService[l - 1]
-							- pPrevious[N][0][l] * (pArrival[0] + pCpuFree * pService[l]);
-
-				for (int n = 0; n <= N; n++) {
-					for (int h = 1; h <= H; h++) {
-						for (int l = 2; l <= L; l++) {
-							pCurrent[n][h][l] = pPrevious[n][h][l] + pPrevious[n][h - 1][l] * pArrival[h - 1]
-									+ pPrevious[n][h][l - 1] * pCpuFree * pService[l - 1]
-									- pPrevious[n][h][l] * (pArrival[h] + pCpuFree * pService[l]);
-						}
-					}
-				}
-
-				for (int n = 1; n <= N; n++) {
-					for (int h = 1; h <= H; h++) {
-						pCurrent[n][h][0] = pPrevious[n][h][0] + pPrevious[n][h - 1][0] * pArrival[h - 1]
-								+ pPrevious[n][h][L] * pCpuFree * pService[L]
-								- pPrevious[n][h][0] * (pArrival[h] + pCpuFree * pService[0]);
-					}
-				}
-
-				for (int n = 1; n < N; n++)
-					pCurrent[n][0][1] = pPrevious[n][0][1] + pPrevious[n + 1][0][0] * pCpuFree * pService[0]
-							+ pPrevious[n - 1][H][1] * pArrival[H]
-							- pPrevious[n][0][1] * (pArrival[0] + pCpuFree * pService[1]);
-
-			}
-
-			for (int n = 0; n <= N; n++) {
-				for (int h = 0; h <= H; h++) {
-					for (int l = 0; l <= L; l++) {
-						if (pCurrent[n][h][l] < 0) {
-							System.out.println(pCurrent[n][h][l]);
-							throw new IllegalArgumentException(
-									"Negative probabilities result. " + "Please, try with a lower timeStep.");
-						}
-
-						this.pExtendedAlongTime[t][n][h][l] = pCurrent[n][h][l];
-						this.stateProbabilitiesAlongTime[t][n] += pCurrent[n][h][l];
-						if (this.stateProbabilitiesAlongTime[t][n] > 1.0000002
-								|| this.stateProbabilitiesAlongTime[t][n] < 0.0) {
-							System.out.println("time: " + t + " k " + n + " esattamente: "
-									+ this.stateProbabilitiesAlongTime[t][n]);
-							throw new IllegalArgumentException("queue state error");
-						}
-					}
-				}
-
-			}
-		}
+	/**
+	 * Solves the CTMC while the cpu-free probabilities arrive from the previous
+	 * priority level, publishing those of the next level
+	 * 
+	 * @param timeStep  analysis time step
+	 * @param timeBound analysis end time
+	 * @param input     cpu-free probabilities of this task
+	 * @param output    cpu-free probabilities of the next task, or null
+	 * @return the solver itself.
+	 * @throws InterruptedException if the thread is interrupted while waiting for
+	 *                              the previous level
+	 */
+	QueueEDSolver analyze(BigDecimal timeStep, BigInteger timeBound, CpuFreeStream input, CpuFreeStream output)
+			throws InterruptedException {
+		this.pExtendedAlongTime = null;
+		solve(timeStep, timeBound, input, output, true, new StepObserver[0]);
+		return this;
+	}
 
+	/**
+	 * Solves the CTMC keeping only the current and the previous state vectors. The
+	 * results along time are not retained: each observer receives the
+	 * distribution of the extended states at each step and keeps what it needs,
+	 * so the memory does not grow with the time bound.
+	 * 
+	 * @param timeStep     analysis time step
+	 * @param timeBound    analysis end time
+	 * @param cpuFreeProbs probability of cpu free at each time
+	 * @param observers    observers notified at each time step
+	 * @return the solver itself.
+	 */
+	public QueueEDSolver analyzeStreaming(BigDecimal timeStep, BigInteger timeBound, double[] cpuFreeProbs,
+			StepObserver... observers) {
+		this.pExtendedAlongTime = null;
+		solve(timeStep, timeBound, cpuFreeProbs, false, observers);
 		return this;
 	}
 
-	protected static double taylorFirstOrderExpansion(BigDecimal lambda, double value) {
-		return lambda.multiply(new BigDecimal(value)).doubleValue();
+	@Override
+	protected double[] getInitialState() {
+		double[] state = new double[stateSpace.size()];
+		for (int n = 0; n < initialElementsDistribution.length; n++)
+			state[stateSpace.index(n, 0, 0, 0)] = initialElementsDistribution[n];
+		return state;
+	}
+
+	@Override
+	protected Marginal getRetainedMarginal() {
+		return Marginal.QUEUE_LENGTH;
 	}
 
 	public void debugProbs(int time) {
 		int N = queueSize.intValue();
-		int H = pArrival.length - 1;
-		int L = pService.length - 1;
-		System.out.println("N:" + N + "\n H:" + pArrival.length + "\n L:" + pService.length + "\n totale stati: "
-				+ (N + 1) * pArrival.length * pService.length);
+		int H = arrivalLambdas.length - 1;
+		int L = serviceLambdas.length - 1;
+		System.out.println("N:" + N + "\n H:" + (H + 1) + "\n L:" + (L + 1) + "\n totale stati: "
+				+ (N + 1) * (H + 1) * (L + 1));
+		int HL = stateSpace.queueBlockSize();
+		double[][] extended = getExtendedStatesAlongTime();
 		double[][] debug = new double[time][N + 1];
 		double val = 0.0;
 		double sum = 0.0;
 		for (int t = 0; t < time; t++) {
 			for (int n = 0; n <= N; n++) {
 				val = 0.0;
-				for (int h = 0; h <= H; h++) {
-					for (int l = 0; l <= L; l++) {
-						val += pExtendedAlongTime[t][n][h][l];
-					}
-				}
+				for (int i = n * HL; i < (n + 1) * HL; i++)
+					val += extended[t][i];
 				debug[t][n] = val;
 			}
 		}
@@ -284,18 +155,28 @@ public class QueueEDSolver {
 	}
 
 	public double[][] getStateProbabilitiesAlongTime() {
-		return stateProbabilitiesAlongTime;
-	}
-
-	private double getServiceFunction(int index) {
-		return 1;
-	}
-
-	private double getArrivalFunction(int index) {
-		return 1;
+		return getMarginalAlongTime();
 	}
 
+	/**
+	 * Returns the probability of each extended state (jobs in queue, arrival
+	 * phase, service phase) at each time step. The nested array is built from the
+	 * flat storage on the first call.
+	 * 
+	 * @return probabilities indexed by [time][n][h][l]
+	 */
 	public double[][][][] getpExtendedAlongTime() {
+		int steps = getRetainedSteps();
+		if (pExtendedAlongTime == null && steps > 0) {
+			int N = queueSize.intValue();
+			int H = arrivalLambdas.length - 1;
+			int L = serviceLambdas.length - 1;
+			pExtendedAlongTime = new double[steps][N + 1][H + 1][L + 1];
+			for (int t = 0; t < steps; t++)
+				for (int n = 0; n <= N; n++)
+					for (int h = 0; h <= H; h++)
+						copyExtendedStates(t, stateSpace.index(n, 0, h, 0), pExtendedAlongTime[t][n][h], L + 1);
+		}
 		return pExtendedAlongTime;
 	}
 
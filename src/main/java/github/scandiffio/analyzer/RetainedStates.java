@@ -0,0 +1,131 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Storage of the extended states retained by an equation solver at each time
+ * step. The rows are kept on the heap, as doubles or floats, or in a
+ * memory-mapped file, see {@link MappedStates}.
+ */
+abstract class RetainedStates {
+
+	protected final int steps;
+	protected final int size;
+
+	protected RetainedStates(int steps, int size) {
+		this.steps = steps;
+		this.size = size;
+	}
+
+	/**
+	 * Stores a copy of the state of a time step
+	 */
+	abstract void put(int t, double[] state);
+
+	abstract double get(int t, int state);
+
+	/**
+	 * Copies length consecutive probabilities of a time step, from the state
+	 * from, to the beginning of destination
+	 */
+	abstract void copy(int t, int from, double[] destination, int length);
+
+	abstract StoragePrecision getPrecision();
+
+	/**
+	 * @return the rows indexed by [time][state]. They are the stored rows
+	 *         themselves for double precision heap storage, and copies otherwise
+	 */
+	double[][] toArray() {
+		double[][] rows = new double[steps][size];
+		for (int t = 0; t < steps; t++)
+			copy(t, 0, rows[t], size);
+		return rows;
+	}
+
+	int getSteps() {
+		return steps;
+	}
+
+	/**
+	 * Estimates the memory taken by the states of an analysis
+	 */
+	static long bytes(int steps, int size, StoragePrecision precision) {
+		return (long) steps * size * (precision == StoragePrecision.SINGLE ? Float.BYTES : Double.BYTES);
+	}
+
+	/**
+	 * Rows of doubles on the heap
+	 */
+	static final class HeapDoubles extends RetainedStates {
+
+		private final double[][] rows;
+
+		HeapDoubles(int steps, int size) {
+			super(steps, size);
+			this.rows = new double[steps][];
+		}
+
+		@Override
+		void put(int t, double[] state) {
+			rows[t] = state.clone();
+		}
+
+		@Override
+		double get(int t, int state) {
+			return rows[t][state];
+		}
+
+		@Override
+		void copy(int t, int from, double[] destination, int length) {
+			System.arraycopy(rows[t], from, destination, 0, length);
+		}
+
+		@Override
+		StoragePrecision getPrecision() {
+			return StoragePrecision.DOUBLE;
+		}
+
+		@Override
+		double[][] toArray() {
+			return rows;
+		}
+	}
+
+	/**
+	 * Rows of floats on the heap
+	 */
+	static final class HeapFloats extends RetainedStates {
+
+		private final float[][] rows;
+
+		HeapFloats(int steps, int size) {
+			super(steps, size);
+			this.rows = new float[steps][];
+		}
+
+		@Override
+		void put(int t, double[] state) {
+			float[] row = new float[size];
+			for (int i = 0; i < size; i++)
+				row[i] = (float) state[i];
+			rows[t] = row;
+		}
+
+		@Override
+		double get(int t, int state) {
+			return rows[t][state];
+		}
+
+		@Override
+		void copy(int t, int from, double[] destination, int length) {
+			float[] row = rows[t];
+			for (int i = 0; i < length; i++)
+				destination[i] = row[from + i];
+		}
+
+		@Override
+		StoragePrecision getPrecision() {
+			return StoragePrecision.SINGLE;
+		}
+	}
+
+}
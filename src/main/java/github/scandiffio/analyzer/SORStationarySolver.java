@@ -0,0 +1,94 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Stationary distribution by successive over-relaxation of the balance
+ * equations pi_j (1 - P[j][j]) = sum_{i != j} pi_i P[i][j]. With a relaxation
+ * factor of one it is the Gauss-Seidel method. Each sweep costs as much as a
+ * vector-matrix product and uses the values updated within the same sweep,
+ * which usually converges in far fewer iterations than the power method.
+ */
+public class SORStationarySolver implements StationarySolver {
+
+	private final double omega;
+	private final double tolerance;
+	private final int maxIterations;
+	// published once at the end of each solution, since the same solver may serve
+	// several analyses in parallel
+	private volatile int iterations;
+
+	/**
+	 * @param omega         relaxation factor, in (0,2). One gives Gauss-Seidel
+	 * @param tolerance     the iteration stops when the L1 distance between two
+	 *                      consecutive vectors is below this value
+	 * @param maxIterations maximum number of sweeps
+	 */
+	public SORStationarySolver(double omega, double tolerance, int maxIterations) {
+		if (omega <= 0 || omega >= 2)
+			throw new IllegalArgumentException("The relaxation factor must be in the range (0,2). Got " + omega);
+		if (tolerance <= 0)
+			throw new IllegalArgumentException("The tolerance must be positive");
+		if (maxIterations < 1)
+			throw new IllegalArgumentException("The maximum number of iterations must be positive");
+		this.omega = omega;
+		this.tolerance = tolerance;
+		this.maxIterations = maxIterations;
+	}
+
+	@Override
+	public double[] solve(double[][] transitionMatrix) {
+		int size = transitionMatrix.length;
+
+		// the sweep reads the columns of the matrix
+		double[][] columns = new double[size][size];
+		for (int i = 0; i < size; i++)
+			for (int j = 0; j < size; j++)
+				columns[j][i] = transitionMatrix[i][j];
+
+		double[] pi = new double[size];
+		double[] previous = new double[size];
+		for (int i = 0; i < size; i++)
+			pi[i] = 1.0 / size;
+
+		for (int iteration = 1; iteration <= maxIterations; iteration++) {
+			System.arraycopy(pi, 0, previous, 0, size);
+			for (int j = 0; j < size; j++) {
+				double[] column = columns[j];
+				double inflow = 0.0;
+				for (int i = 0; i < size; i++)
+					if (i != j)
+						inflow += pi[i] * column[i];
+				double stay = 1.0 - column[j];
+				if (stay <= 0.0)
+					throw new IllegalArgumentException("The chain is reducible: state " + j + " is absorbing");
+				pi[j] = (1.0 - omega) * pi[j] + omega * inflow / stay;
+			}
+
+			double sum = 0.0;
+			for (int j = 0; j < size; j++)
+				sum += pi[j];
+			double distance = 0.0;
+			for (int j = 0; j < size; j++) {
+				pi[j] /= sum;
+				distance += Math.abs(pi[j] - previous[j]);
+			}
+			if (distance < tolerance) {
+				iterations = iteration;
+				return pi;
+			}
+		}
+		iterations = maxIterations;
+		throw new IllegalStateException("SOR did not converge in " + maxIterations + " iterations");
+	}
+
+	/**
+	 * @return the number of sweeps of the last solution
+	 */
+	public int getIterations() {
+		return iterations;
+	}
+
+	public double getOmega() {
+		return omega;
+	}
+
+}
@@ -0,0 +1,147 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Immutable result of an equation solver analysis, as kept by
+ * {@link SolverResultCache}. It holds the marginal distribution retained by the
+ * solver at each time step and the probability of the state used to chain the
+ * cpu-free probabilities of the next priority level.
+ */
+public final class SolverResult {
+
+	/**
+	 * The analysis that produced the result
+	 */
+	public enum Kind {
+		/**
+		 * {@link QueueEDSolver}: the marginal is the queue length
+		 */
+		QUEUE,
+		/**
+		 * {@link DenialEDSolver}: the marginal is the number of denials
+		 */
+		DENIALS
+	}
+
+	private final Kind kind;
+	private final int samples;
+	private final int width;
+	private final double[] marginal;
+	private final double[] atLeast;
+	private final double[] idle;
+
+	SolverResult(Kind kind, int samples, int width, double[] marginal, double[] atLeast, double[] idle) {
+		this.kind = kind;
+		this.samples = samples;
+		this.width = width;
+		this.marginal = marginal;
+		this.atLeast = atLeast;
+		this.idle = idle;
+	}
+
+	static SolverResult of(QueueEDSolver solver) {
+		return new SolverResult(Kind.QUEUE, solver.getRetainedSteps(),
+				solver.getSize().intValue() + 1, flatten(solver.getStateProbabilitiesAlongTime()), null,
+				firstState(solver));
+	}
+
+	static SolverResult of(DenialEDSolver solver) {
+		return new SolverResult(Kind.DENIALS, solver.getRetainedSteps(),
+				solver.getStateSpace().getMaxDenials() + 1, flatten(solver.getExactlykDenials()),
+				flatten(solver.getAtLeastKdenials()), firstState(solver));
+	}
+
+	private static double[] flatten(double[][] values) {
+		int width = values[0].length;
+		double[] flat = new double[values.length * width];
+		for (int t = 0; t < values.length; t++)
+			System.arraycopy(values[t], 0, flat, t * width, width);
+		return flat;
+	}
+
+	private static double[] firstState(EDSolver solver) {
+		double[] first = new double[solver.getRetainedSteps()];
+		for (int t = 0; t < first.length; t++)
+			first[t] = solver.getExtendedProbability(t, 0);
+		return first;
+	}
+
+	public Kind getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return number of time steps, including t=0
+	 */
+	public int getSamples() {
+		return samples;
+	}
+
+	/**
+	 * @return number of values of the marginal at each time step
+	 */
+	public int getWidth() {
+		return width;
+	}
+
+	/**
+	 * @return the probability of exactly i jobs in queue, or of exactly i denials,
+	 *         at time step t
+	 */
+	public double getProbability(int t, int i) {
+		return marginal[t * width + i];
+	}
+
+	/**
+	 * @return the probability of at least k denials at time step t
+	 */
+	public double getAtLeastProbability(int t, int k) {
+		if (atLeast == null)
+			throw new UnsupportedOperationException("Only denial results count at least k denials");
+		return atLeast[t * width + k];
+	}
+
+	/**
+	 * @return the probability of the first extended state at time step t, which
+	 *         chains the cpu-free probabilities of the next priority level
+	 */
+	public double getIdleProbability(int t) {
+		return idle[t];
+	}
+
+	/**
+	 * @return a copy of the marginal, indexed by [time][value]
+	 */
+	public double[][] toArray() {
+		return unflatten(marginal);
+	}
+
+	/**
+	 * @return a copy of the probabilities of at least k denials, indexed by
+	 *         [time][k]
+	 */
+	public double[][] toAtLeastArray() {
+		if (atLeast == null)
+			throw new UnsupportedOperationException("Only denial results count at least k denials");
+		return unflatten(atLeast);
+	}
+
+	private double[][] unflatten(double[] flat) {
+		double[][] values = new double[samples][width];
+		for (int t = 0; t < samples; t++)
+			System.arraycopy(flat, t * width, values[t], 0, width);
+		return values;
+	}
+
+	double[] marginal() {
+		return marginal;
+	}
+
+	double[] atLeast() {
+		return atLeast;
+	}
+
+	double[] idle() {
+		return idle;
+	}
+
+}
@@ -0,0 +1,353 @@
+package github.scandiffio.analyzer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import github.scandiffio.function.FunctionInterface;
+
+/**
+ * Cache of equation solver analyses. Each analysis is identified by a SHA-256
+ * hash of everything it depends on: the kind of solver, the rates of the
+ * arrival and service distributions as given by {@link DistributionExtender},
+ * the contents of the {@link SolverParametersContainer}, the time step, the
+ * time bound and the cpu-free probabilities. The most recently used results are
+ * kept in memory; optionally, every result is also stored in a directory, where
+ * it survives the process.
+ *
+ * The solvers are run with the default integrator.
+ */
+public class SolverResultCache {
+
+	private static final int MAGIC = 0x53524331;
+
+	private final int maxEntries;
+	private final Path directory;
+	private final LinkedHashMap<String, SolverResult> memory;
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Builds a cache kept only in memory
+	 * 
+	 * @param maxEntries maximum number of results kept in memory
+	 */
+	public SolverResultCache(int maxEntries) {
+		this(maxEntries, null);
+	}
+
+	/**
+	 * @param maxEntries maximum number of results kept in memory
+	 * @param directory  directory of the on-disk tier, or null to keep results
+	 *                   only in memory. It is created if it does not exist
+	 */
+	public SolverResultCache(int maxEntries, Path directory) {
+		if (maxEntries < 1)
+			throw new IllegalArgumentException("The cache must hold at least one entry");
+		this.maxEntries = maxEntries;
+		this.directory = directory;
+		this.memory = new LinkedHashMap<String, SolverResult>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, SolverResult> eldest) {
+				return size() > SolverResultCache.this.maxEntries;
+			}
+		};
+		if (directory != null) {
+			try {
+				Files.createDirectories(directory);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the queue analysis of the given task, computing it only if it is not
+	 * in the cache
+	 * 
+	 * @param arrivalDistribution probability distribution of arrival events
+	 * @param serviceDistribution probability distribution of service events
+	 * @param parameters          queue size and initial queue distribution
+	 * @param timeStep            analysis time step
+	 * @param timeBound           analysis end time
+	 * @param cpuFreeProbs        probability of cpu free at each time
+	 * @return the result of {@link QueueEDSolver#analyze}
+	 */
+	public SolverResult analyzeQueue(FunctionInterface arrivalDistribution, FunctionInterface serviceDistribution,
+			SolverParametersContainer parameters, BigDecimal timeStep, BigInteger timeBound, double[] cpuFreeProbs) {
+		String key = key(SolverResult.Kind.QUEUE, arrivalDistribution, serviceDistribution, parameters, timeStep,
+				timeBound, cpuFreeProbs);
+		SolverResult result = lookup(key);
+		if (result == null) {
+			QueueEDSolver solver = new QueueEDSolver(arrivalDistribution, serviceDistribution,
+					parameters.getQueueSize(), parameters.getQueuedJobsDistribution());
+			result = store(key, SolverResult.of(solver.analyze(timeStep, timeBound, cpuFreeProbs)));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the denial analysis of the given task, computing it only if it is
+	 * not in the cache
+	 * 
+	 * @param arrivalDistribution probability distribution of arrival events
+	 * @param serviceDistribution probability distribution of service events
+	 * @param parameters          queue size, maximum number of denials and
+	 *                            initial distributions
+	 * @param timeStep            analysis time step
+	 * @param timeBound           analysis end time
+	 * @param cpuFreeProbs        probability of cpu free at each time
+	 * @return the result of {@link DenialEDSolver#analyze}
+	 */
+	public SolverResult analyzeDenials(FunctionInterface arrivalDistribution, FunctionInterface serviceDistribution,
+			SolverParametersContainer parameters, BigDecimal timeStep, BigInteger timeBound, double[] cpuFreeProbs) {
+		String key = key(SolverResult.Kind.DENIALS, arrivalDistribution, serviceDistribution, parameters, timeStep,
+				timeBound, cpuFreeProbs);
+		SolverResult result = lookup(key);
+		if (result == null) {
+			DenialEDSolver solver = new DenialEDSolver(arrivalDistribution, serviceDistribution,
+					parameters.getQueueSize(), parameters.getMaxDenials(), parameters.getQueuedJobsDistribution(),
+					parameters.getInitialDenialsDistribution());
+			result = store(key, SolverResult.of(solver.analyze(timeStep, timeBound, cpuFreeProbs)));
+		}
+		return result;
+	}
+
+	private SolverResult lookup(String key) {
+		SolverResult result;
+		synchronized (memory) {
+			result = memory.get(key);
+		}
+		if (result != null) {
+			memoryHits.incrementAndGet();
+			return result;
+		}
+		if (directory != null) {
+			result = read(directory.resolve(key + ".bin"));
+			if (result != null) {
+				diskHits.incrementAndGet();
+				synchronized (memory) {
+					memory.put(key, result);
+				}
+				return result;
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	private SolverResult store(String key, SolverResult result) {
+		synchronized (memory) {
+			memory.put(key, result);
+		}
+		if (directory != null)
+			write(directory.resolve(key + ".bin"), result);
+		return result;
+	}
+
+	/**
+	 * Canonical hash of the inputs of an analysis
+	 */
+	static String key(SolverResult.Kind kind, FunctionInterface arrivalDistribution,
+			FunctionInterface serviceDistribution, SolverParametersContainer parameters, BigDecimal timeStep,
+			BigInteger timeBound, double[] cpuFreeProbs) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		Hasher hasher = new Hasher(digest);
+		hasher.putInt(kind.ordinal());
+		for (BigDecimal rate : DistributionExtender.getExtendedProbs(arrivalDistribution))
+			hasher.putDecimal(rate);
+		hasher.putInt(-1);
+		for (BigDecimal rate : DistributionExtender.getExtendedProbs(serviceDistribution))
+			hasher.putDecimal(rate);
+		hasher.putInt(-1);
+		hasher.putInt(parameters.getQueueSize().intValue());
+		hasher.putDoubles(parameters.getQueuedJobsDistribution());
+		if (kind == SolverResult.Kind.DENIALS) {
+			hasher.putInt(parameters.getMaxDenials().intValue());
+			hasher.putDoubles(parameters.getInitialDenialsDistribution());
+		}
+		hasher.putDecimal(timeStep);
+		hasher.putDecimal(new BigDecimal(timeBound));
+		hasher.putDoubles(cpuFreeProbs);
+
+		StringBuilder hex = new StringBuilder(64);
+		for (byte b : digest.digest())
+			hex.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return hex.toString();
+	}
+
+	private static final class Hasher {
+		private final MessageDigest digest;
+		private final byte[] buffer = new byte[8];
+
+		Hasher(MessageDigest digest) {
+			this.digest = digest;
+		}
+
+		void putInt(int value) {
+			for (int i = 0; i < 4; i++)
+				buffer[i] = (byte) (value >>> (24 - 8 * i));
+			digest.update(buffer, 0, 4);
+		}
+
+		void putLong(long value) {
+			for (int i = 0; i < 8; i++)
+				buffer[i] = (byte) (value >>> (56 - 8 * i));
+			digest.update(buffer, 0, 8);
+		}
+
+		void putDoubles(double[] values) {
+			putInt(values.length);
+			for (double value : values)
+				putLong(Double.doubleToLongBits(value + 0.0));
+		}
+
+		void putDecimal(BigDecimal value) {
+			// equal values with a different scale, such as 0.1 and 0.10, hash the same
+			byte[] text = value.stripTrailingZeros().toPlainString().getBytes(StandardCharsets.US_ASCII);
+			putInt(text.length);
+			digest.update(text);
+		}
+	}
+
+	private static void write(Path file, SolverResult result) {
+		Path temporary = null;
+		try {
+			temporary = Files.createTempFile(file.getParent(), "result", ".tmp");
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(result.getKind().ordinal());
+				out.writeInt(result.getSamples());
+				out.writeInt(result.getWidth());
+				writeDoubles(out, result.marginal());
+				out.writeBoolean(result.atLeast() != null);
+				if (result.atLeast() != null)
+					writeDoubles(out, result.atLeast());
+				writeDoubles(out, result.idle());
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			temporary = null;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			if (temporary != null) {
+				try {
+					Files.deleteIfExists(temporary);
+				} catch (IOException e) {
+					// the partial file is left behind, it is never read
+				}
+			}
+		}
+	}
+
+	private static SolverResult read(Path file) {
+		if (!Files.isRegularFile(file))
+			return null;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC)
+				return null;
+			int ordinal = in.readInt();
+			if (ordinal < 0 || ordinal >= SolverResult.Kind.values().length)
+				return null;
+			SolverResult.Kind kind = SolverResult.Kind.values()[ordinal];
+			int samples = in.readInt();
+			int width = in.readInt();
+			// the sizes must match the length of the file before any array is
+			// allocated for them
+			long values = (long) samples * width;
+			if (samples < 0 || width < 0 || values > Integer.MAX_VALUE)
+				return null;
+			long length = Files.size(file);
+			if (length != 17 + 8 * (values + samples) && length != 17 + 8 * (2 * values + samples))
+				return null;
+			double[] marginal = readDoubles(in, samples * width);
+			double[] atLeast = in.readBoolean() ? readDoubles(in, samples * width) : null;
+			double[] idle = readDoubles(in, samples);
+			return new SolverResult(kind, samples, width, marginal, atLeast, idle);
+		} catch (IOException | RuntimeException e) {
+			// a damaged entry is computed again
+			return null;
+		}
+	}
+
+	private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+		for (double value : values)
+			out.writeDouble(value);
+	}
+
+	private static double[] readDoubles(DataInputStream in, int length) throws IOException {
+		double[] values = new double[length];
+		for (int i = 0; i < length; i++)
+			values[i] = in.readDouble();
+		return values;
+	}
+
+	/**
+	 * @return number of results found in memory
+	 */
+	public long getMemoryHits() {
+		return memoryHits.get();
+	}
+
+	/**
+	 * @return number of results found on disk but not in memory
+	 */
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	/**
+	 * @return number of results found in memory or on disk
+	 */
+	public long getHits() {
+		return memoryHits.get() + diskHits.get();
+	}
+
+	/**
+	 * @return number of results that had to be computed
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return number of results currently kept in memory
+	 */
+	public int getMemorySize() {
+		synchronized (memory) {
+			return memory.size();
+		}
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+}
@@ -0,0 +1,275 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Infinitesimal generator of the queue CTMC in compressed sparse row format.
+ * Rows are indexed by the destination state, so that the product of a
+ * probability vector by the generator is a gather over each row. Each entry has
+ * an arrival rate, which is constant, and a service rate, which is scaled by the
+ * probability that the cpu is free. The diagonal is kept apart from the
+ * off-diagonal entries.
+ */
+public class SparseGenerator {
+
+	private final ExtendedStateSpace stateSpace;
+	private final int size;
+	private final int[] rowStart;
+	private final int[] columns;
+	private final double[] arrivalRates;
+	private final double[] serviceRates;
+	private final double[] arrivalDiagonal;
+	private final double[] serviceDiagonal;
+	// states whose probability leaves the tracked states, with their rates
+	private final int[] lossStates;
+	private final double[] arrivalLoss;
+	private final double[] serviceLoss;
+
+	SparseGenerator(ExtendedStateSpace stateSpace, int size, int[] rowStart, int[] columns, double[] arrivalRates, double[] serviceRates,
+			double[] arrivalDiagonal, double[] serviceDiagonal) {
+		this.stateSpace = stateSpace;
+		this.size = size;
+		this.rowStart = rowStart;
+		this.columns = columns;
+		this.arrivalRates = arrivalRates;
+		this.serviceRates = serviceRates;
+		this.arrivalDiagonal = arrivalDiagonal;
+		this.serviceDiagonal = serviceDiagonal;
+
+		// each column of the generator sums to minus the loss rate of its state
+		double[] arrival = arrivalDiagonal.clone();
+		double[] service = serviceDiagonal.clone();
+		for (int e = 0; e < columns.length; e++) {
+			arrival[columns[e]] += arrivalRates[e];
+			service[columns[e]] += serviceRates[e];
+		}
+		int count = 0;
+		for (int i = 0; i < size; i++)
+			if (arrival[i] != 0.0 || service[i] != 0.0)
+				count++;
+		this.lossStates = new int[count];
+		this.arrivalLoss = new double[count];
+		this.serviceLoss = new double[count];
+		count = 0;
+		for (int i = 0; i < size; i++)
+			if (arrival[i] != 0.0 || service[i] != 0.0) {
+				lossStates[count] = i;
+				arrivalLoss[count] = -arrival[i];
+				serviceLoss[count] = -service[i];
+				count++;
+			}
+	}
+
+	/**
+	 * Computes one step of the first order expansion next = prev + timeStep *
+	 * prev * Q, where Q is the generator with the service transitions scaled by
+	 * cpuFree
+	 * 
+	 * @param prev     probabilities at the current time
+	 * @param next     array where the probabilities after timeStep are written
+	 * @param timeStep length of the step
+	 * @param cpuFree  probability that the cpu is free during the step
+	 */
+	public void eulerStep(double[] prev, double[] next, double timeStep, double cpuFree) {
+		int e = 0;
+		for (int j = 0; j < size; j++) {
+			double sum = prev[j] * (arrivalDiagonal[j] + cpuFree * serviceDiagonal[j]);
+			for (int end = rowStart[j + 1]; e < end; e++)
+				sum += prev[columns[e]] * (arrivalRates[e] + cpuFree * serviceRates[e]);
+			next[j] = prev[j] + timeStep * sum;
+		}
+	}
+
+	/**
+	 * Variant of {@link #eulerStep(double[], double[], double, double)} that only
+	 * writes the states from firstRow to endRow - 1. The other states of next are
+	 * left untouched.
+	 * 
+	 * @param prev     probabilities at the current time
+	 * @param next     array where the probabilities after timeStep are written
+	 * @param timeStep length of the step
+	 * @param cpuFree  probability that the cpu is free during the step
+	 * @param firstRow first state to be written
+	 * @param endRow   state after the last one to be written
+	 */
+	public void eulerStep(double[] prev, double[] next, double timeStep, double cpuFree, int firstRow, int endRow) {
+		int e = rowStart[firstRow];
+		for (int j = firstRow; j < endRow; j++) {
+			double sum = prev[j] * (arrivalDiagonal[j] + cpuFree * serviceDiagonal[j]);
+			for (int end = rowStart[j + 1]; e < end; e++)
+				sum += prev[columns[e]] * (arrivalRates[e] + cpuFree * serviceRates[e]);
+			next[j] = prev[j] + timeStep * sum;
+		}
+	}
+
+	/**
+	 * Single precision variant of
+	 * {@link #eulerStep(double[], double[], double, double)}. The probabilities
+	 * are stored as floats, while each row is summed in double precision and
+	 * rounded once.
+	 * 
+	 * @param prev     probabilities at the current time
+	 * @param next     array where the probabilities after timeStep are written
+	 * @param timeStep length of the step
+	 * @param cpuFree  probability that the cpu is free during the step
+	 * @return the sum of the probabilities written to next, in double precision
+	 */
+	public double eulerStep(float[] prev, float[] next, double timeStep, double cpuFree) {
+		double mass = 0.0;
+		int e = 0;
+		for (int j = 0; j < size; j++) {
+			double sum = prev[j] * (arrivalDiagonal[j] + cpuFree * serviceDiagonal[j]);
+			for (int end = rowStart[j + 1]; e < end; e++)
+				sum += prev[columns[e]] * (arrivalRates[e] + cpuFree * serviceRates[e]);
+			float value = (float) (prev[j] + timeStep * sum);
+			next[j] = value;
+			mass += value;
+		}
+		return mass;
+	}
+
+	/**
+	 * Rate at which the probability leaves the tracked states, which happens when
+	 * jobs are denied beyond the last counted number of denials. The sum of a
+	 * distribution p evolves as d/dt sum(p) = -loss(p).
+	 * 
+	 * @param state   probabilities of the states
+	 * @param cpuFree probability that the cpu is free
+	 * @return the loss rate of the given distribution
+	 */
+	public double loss(float[] state, double cpuFree) {
+		double loss = 0.0;
+		for (int i = 0; i < lossStates.length; i++)
+			loss += state[lossStates[i]] * (arrivalLoss[i] + cpuFree * serviceLoss[i]);
+		return loss;
+	}
+
+	/**
+	 * Block version of {@link #eulerStep(double[], double[], double, double)},
+	 * which advances several probability vectors with a single pass over the
+	 * generator. The vectors are interleaved: the probability of state i in
+	 * vector c is at index i * width + c.
+	 * 
+	 * @param prev     probabilities at the current time
+	 * @param next     array where the probabilities after timeStep are written
+	 * @param width    number of vectors
+	 * @param timeStep length of the step
+	 * @param cpuFree  probability that the cpu is free during the step
+	 */
+	public void eulerStep(double[] prev, double[] next, int width, double timeStep, double cpuFree) {
+		int e = 0;
+		for (int j = 0; j < size; j++) {
+			int row = j * width;
+			double diagonal = arrivalDiagonal[j] + cpuFree * serviceDiagonal[j];
+			for (int c = 0; c < width; c++)
+				next[row + c] = prev[row + c] * diagonal;
+			for (int end = rowStart[j + 1]; e < end; e++) {
+				double rate = arrivalRates[e] + cpuFree * serviceRates[e];
+				int column = columns[e] * width;
+				for (int c = 0; c < width; c++)
+					next[row + c] += prev[column + c] * rate;
+			}
+			for (int c = 0; c < width; c++)
+				next[row + c] = prev[row + c] + timeStep * next[row + c];
+		}
+	}
+
+	/**
+	 * Computes y = x * Q, where Q is the generator with the service transitions
+	 * scaled by cpuFree
+	 * 
+	 * @param x       input vector
+	 * @param y       array where the product is written
+	 * @param cpuFree probability that the cpu is free
+	 */
+	public void multiply(double[] x, double[] y, double cpuFree) {
+		int e = 0;
+		for (int j = 0; j < size; j++) {
+			double sum = x[j] * (arrivalDiagonal[j] + cpuFree * serviceDiagonal[j]);
+			for (int end = rowStart[j + 1]; e < end; e++)
+				sum += x[columns[e]] * (arrivalRates[e] + cpuFree * serviceRates[e]);
+			y[j] = sum;
+		}
+	}
+
+	/**
+	 * Computes y = x * P, where P = I + Q / rate is the uniformized matrix of the
+	 * generator Q with the service transitions scaled by cpuFree. The diagonal
+	 * terms are clamped to zero, so y is non-negative when x is non-negative even
+	 * for the state whose exit rate equals the uniformization rate.
+	 * 
+	 * @param x       input vector
+	 * @param y       array where the product is written
+	 * @param cpuFree probability that the cpu is free
+	 * @param rate    uniformization rate, not lower than
+	 *                {@link #maxExitRate(double)}
+	 */
+	public void uniformizedMultiply(double[] x, double[] y, double cpuFree, double rate) {
+		double inverse = 1.0 / rate;
+		int e = 0;
+		for (int j = 0; j < size; j++) {
+			double stay = 1.0 + (arrivalDiagonal[j] + cpuFree * serviceDiagonal[j]) * inverse;
+			double sum = 0.0;
+			for (int end = rowStart[j + 1]; e < end; e++)
+				sum += x[columns[e]] * (arrivalRates[e] + cpuFree * serviceRates[e]);
+			y[j] = x[j] * Math.max(stay, 0.0) + sum * inverse;
+		}
+	}
+
+	/**
+	 * @param cpuFree probability that the cpu is free
+	 * @return the largest exit rate of a state, that is max |Q[i][i]|
+	 */
+	public double maxExitRate(double cpuFree) {
+		double max = 0.0;
+		for (int j = 0; j < size; j++)
+			max = Math.max(max, -(arrivalDiagonal[j] + cpuFree * serviceDiagonal[j]));
+		return max;
+	}
+
+	// the arrays below are shared, not copied, with the kernels of the package
+
+	int[] getRowStart() {
+		return rowStart;
+	}
+
+	int[] getColumns() {
+		return columns;
+	}
+
+	double[] getArrivalRates() {
+		return arrivalRates;
+	}
+
+	double[] getServiceRates() {
+		return serviceRates;
+	}
+
+	double[] getArrivalDiagonal() {
+		return arrivalDiagonal;
+	}
+
+	double[] getServiceDiagonal() {
+		return serviceDiagonal;
+	}
+
+	/**
+	 * @return layout of the states of the generator
+	 */
+	public ExtendedStateSpace getStateSpace() {
+		return stateSpace;
+	}
+
+	/**
+	 * @return number of states
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return number of stored entries, diagonal included
+	 */
+	public int getNonZeros() {
+		return columns.length + size;
+	}
+
+}
@@ -0,0 +1,16 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Computes the stationary distribution of a discrete-time Markov chain given
+ * its transition matrix
+ */
+public interface StationarySolver {
+
+	/**
+	 * @param transitionMatrix stochastic matrix indexed by [from][to]. It is not
+	 *                         modified
+	 * @return the stationary distribution, which sums to one
+	 */
+	double[] solve(double[][] transitionMatrix);
+
+}
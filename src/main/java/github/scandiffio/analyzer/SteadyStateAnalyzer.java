@@ -23,17 +23,34 @@ public abstract class SteadyStateAnalyzer {
 	public abstract double[] getSteadyStateDistribution(QueueEDSolver analyzer, BigDecimal timeStep,
 			BigInteger timeBound);
 
+	/**
+	 * Computes the probability of having j jobs in queue at the end of the period
+	 * given k jobs at its beginning. The N+1 initial queue lengths are propagated
+	 * together in a single pass over the period.
+	 * 
+	 * @param analyzer    the queue analyzer that should be used
+	 * @param timeStep    the temporal resolution of the transient analysis
+	 * @param hyperPeriod length of the period
+	 * @return the matrix indexed by [k][j]
+	 */
 	protected double[][] getPkjMatrix(QueueEDSolver analyzer, BigDecimal timeStep, BigInteger hyperPeriod) {
 		int hyperPeriodStep = new BigDecimal(hyperPeriod).divide(timeStep).intValue() + 1;
+		int size = analyzer.getSize().intValue();
+		ExtendedStateSpace stateSpace = analyzer.getStateSpace();
+
+		double[][] initialStates = new double[size + 1][stateSpace.size()];
+		for (int k = 0; k <= size; k++)
+			initialStates[k][stateSpace.index(k, 0, 0, 0)] = 1.0;
+
+		double[] cpuFreeProbs = new double[hyperPeriodStep];
+		for (int t = 0; t < hyperPeriodStep; t++)
+			cpuFreeProbs[t] = 1.0;
+
+		double[][] finalStates = analyzer.propagate(initialStates, timeStep, hyperPeriod, cpuFreeProbs);
 
-		double[][] pkjMatrix = new double[analyzer.getSize().intValue() + 1][analyzer.getSize().intValue() + 1];
-		for (int k = 0; k <= analyzer.getSize().intValue(); k++) {
-			double[][] stateProbabilitiesAlongFirstPeriod = analyzer.analyze(timeStep, hyperPeriod)
-					.getStateProbabilitiesAlongTime();
-			for (int j = 0; j <= analyzer.getSize().intValue(); j++) {
-				pkjMatrix[k][j] = stateProbabilitiesAlongFirstPeriod[hyperPeriodStep - 1][j];
-			}
-		}
+		double[][] pkjMatrix = new double[size + 1][size + 1];
+		for (int k = 0; k <= size; k++)
+			Marginal.QUEUE_LENGTH.compute(stateSpace, finalStates[k], pkjMatrix[k]);
 
 		return pkjMatrix;
 	}
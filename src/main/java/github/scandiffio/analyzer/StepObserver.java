@@ -0,0 +1,29 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Receives the distribution of the extended states at each time step of an
+ * analysis. It lets the caller keep only the quantities it needs instead of the
+ * whole time x state tensor.
+ */
+public interface StepObserver {
+
+	/**
+	 * Called once before the first time step
+	 * 
+	 * @param stateSpace    layout of the state vectors passed to
+	 *                      {@link #observe(int, double[])}
+	 * @param timeBoundStep number of time steps of the analysis, including t=0
+	 */
+	default void begin(ExtendedStateSpace stateSpace, int timeBoundStep) {
+	}
+
+	/**
+	 * Called at each time step, starting from the initial distribution at step 0
+	 * 
+	 * @param step  index of the time step
+	 * @param state probability of each extended state. The array is reused by the
+	 *              solver, so it must not be modified nor retained after the call
+	 */
+	void observe(int step, double[] state);
+
+}
@@ -0,0 +1,21 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Precision of the extended states retained by the equation solvers at each
+ * time step.
+ */
+public enum StoragePrecision {
+
+	/**
+	 * Each probability is kept as a double
+	 */
+	DOUBLE,
+
+	/**
+	 * Each probability is kept as a float, which halves the memory of the
+	 * retained states. The relative error of each value is below 6e-8, which is
+	 * enough for plots; marginals are still summed and kept in double precision
+	 */
+	SINGLE
+
+}
@@ -2,9 +2,15 @@ package github.scandiffio.analyzer;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import github.scandiffio.task.SoftRealTimeTask;
 
@@ -16,12 +22,25 @@ import github.scandiffio.task.SoftRealTimeTask;
  */
 public class TaskSetAnalyzer {
 
+	private static final int PIPELINE_CAPACITY = 4;
+
 	private LinkedHashMap<Integer, QueueEDSolver> queueSolvers;
 	private LinkedHashMap<Integer, DenialEDSolver> denialSolvers;
 	private ArrayList<SoftRealTimeTask> taskSet;
 	private double[] firstCpuFree;
 	private BigInteger timeBound;
 	private BigDecimal timeStep;
+	// cpu-free probabilities left by each analyzed level to the next one. Only the
+	// first levels, down to the highest priority task changed after the last
+	// analysis, are still valid
+	private ArrayList<double[]> queueOutputs = new ArrayList<double[]>();
+	private ArrayList<double[]> denialOutputs = new ArrayList<double[]>();
+	private int checkpointInterval;
+	private int checkpointsInMemory;
+	private Path checkpointDirectory;
+	private long mappedThreshold = Long.MAX_VALUE;
+	private Path mappedDirectory;
+	private boolean verbose = true;
 
 	/**
 	 * Builds the task-set analyzer. It sorts tasks by priority and creates equation
@@ -83,7 +102,8 @@ public class TaskSetAnalyzer {
 	}
 
 	/**
-	 * Adds an entry to the task-set
+	 * Adds an entry to the task-set. The next analysis recomputes only the tasks
+	 * from the priority level of the new one down
 	 * 
 	 * @param entry new entry to be added
 	 */
@@ -100,57 +120,161 @@ public class TaskSetAnalyzer {
 				container.getQueueSize(), container.getMaxDenials(), container.getQueuedJobsDistribution(),
 				container.getInitialDenialsDistribution());
 
+		queueSolver.setMappedStorage(mappedThreshold, mappedDirectory);
+		denialSolver.setMappedStorage(mappedThreshold, mappedDirectory);
+		if (checkpointInterval > 0) {
+			queueSolver.setCheckpoints(new CheckpointStore(checkpointInterval, checkpointsInMemory, checkpointDirectory));
+			denialSolver.setCheckpoints(new CheckpointStore(checkpointInterval, checkpointsInMemory, checkpointDirectory));
+		}
+
 		this.taskSet.add(task);
 		this.queueSolvers.put(task.getId(), queueSolver);
 		this.denialSolvers.put(task.getId(), denialSolver);
 		taskSet.sort(Comparator.comparing(SoftRealTimeTask::getPriority));
-
+		invalidateFrom(taskSet.indexOf(task));
 	}
 
 	/**
-	 * Removes a task from the task-set
+	 * Removes a task from the task-set. The next analysis recomputes only the
+	 * tasks below it
 	 * 
 	 * @param taskId id of the task to be removed
 	 */
 	public void removeEntry(int taskId) {
 		if (taskSet.isEmpty())
 			throw new IllegalArgumentException("Can not remove any object from empty task set");
+		for (int i = 0; i < taskSet.size(); i++)
+			if (taskSet.get(i).getId() == taskId) {
+				invalidateFrom(i);
+				break;
+			}
 		queueSolvers.remove(taskId);
 		denialSolvers.remove(taskId);
 		taskSet.removeIf(n -> (n.getId() == taskId));
 	}
 
 	/**
-	 * Launches task queue analysis
+	 * Launches task queue analysis. The priority levels that have not changed
+	 * since the last analysis keep their results
 	 */
 	public void analyzeQueues() {
 		if (taskSet.isEmpty())
 			throw new IllegalArgumentException("Can not analyze an empty task set");
-		double[] currentCpuFree = firstCpuFree;
-		System.out.println("------- Analyze queue task id: " + taskSet.get(0).getId() + " -------");
-		QueueEDSolver solver = queueSolvers.get(taskSet.get(0).getId()).analyze(timeStep, timeBound, firstCpuFree);
-		for (int i = 1; i < taskSet.size(); i++) {
-			System.out.println("\n------- Analyze queue task id: " + taskSet.get(i).getId() + " -------");
-			currentCpuFree = computeNextCpuProbs(currentCpuFree, solver.getpExtendedAlongTime());
-			solver = queueSolvers.get(taskSet.get(i).getId()).analyze(timeStep, timeBound, currentCpuFree);
+		int level = queueOutputs.size();
+		double[] currentCpuFree = level == 0 ? firstCpuFree : queueOutputs.get(level - 1);
+		for (int i = level; i < taskSet.size(); i++) {
+			if (verbose)
+				System.out.println("------- Analyze queue task id: " + taskSet.get(i).getId() + " -------");
+			QueueEDSolver solver = queueSolvers.get(taskSet.get(i).getId()).analyze(timeStep, timeBound,
+					currentCpuFree);
+			currentCpuFree = computeNextCpuProbs(currentCpuFree, solver);
+			queueOutputs.add(currentCpuFree);
 		}
 	}
 
 	/**
-	 * Launches task denial analysis
+	 * Launches task denial analysis. The priority levels that have not changed
+	 * since the last analysis keep their results
 	 */
 	public void analyzeDenials() {
 		if (taskSet.isEmpty())
 			throw new IllegalArgumentException("Can not analyze an empty task set");
-		double[] currentCpuFree = firstCpuFree;
-		System.out.println("------- Analyze denials task id: " + taskSet.get(0).getId() + " ------- ");
-		DenialEDSolver solver = denialSolvers.get(taskSet.get(0).getId()).analyze(timeStep, timeBound, firstCpuFree);
-		for (int i = 1; i < taskSet.size(); i++) {
-			System.out.println("------- Analyze denials task id: " + taskSet.get(i).getId() + " ------- ");
-			currentCpuFree = computeNextCpuProbs(currentCpuFree, solver.getExtendedDenials());
-			solver = denialSolvers.get(taskSet.get(i).getId()).analyze(timeStep, timeBound, currentCpuFree);
+		int level = denialOutputs.size();
+		double[] currentCpuFree = level == 0 ? firstCpuFree : denialOutputs.get(level - 1);
+		for (int i = level; i < taskSet.size(); i++) {
+			if (verbose)
+				System.out.println("------- Analyze denials task id: " + taskSet.get(i).getId() + " ------- ");
+			DenialEDSolver solver = denialSolvers.get(taskSet.get(i).getId()).analyze(timeStep, timeBound,
+					currentCpuFree);
+			currentCpuFree = computeNextCpuProbs(currentCpuFree, solver);
+			denialOutputs.add(currentCpuFree);
 		}
+	}
 
+	/**
+	 * Launches queue and denial analysis of all the tasks at the same time. Each
+	 * priority level has its own worker for queues and one for denials: a worker
+	 * starts as soon as the previous level has analyzed the first chunk of time
+	 * steps, and passes its own idle probabilities to the next level chunk by
+	 * chunk through a bounded queue. With the default integrator the results are
+	 * the same as {@link #analyzeQueues()} and {@link #analyzeDenials()};
+	 * integrators that look ahead in the cpu-free profile only see one chunk at a
+	 * time.
+	 * 
+	 * @param chunkSteps number of time steps passed at once from a priority level
+	 *                   to the next
+	 */
+	public void analyzePipelined(int chunkSteps) {
+		if (taskSet.isEmpty())
+			throw new IllegalArgumentException("Can not analyze an empty task set");
+		if (chunkSteps < 1)
+			throw new IllegalArgumentException("The chunk must contain at least one time step");
+
+		int levels = taskSet.size();
+		ExecutorService executor = Executors.newFixedThreadPool(2 * levels + 2);
+		CompletionService<Void> workers = new ExecutorCompletionService<Void>(executor);
+		try {
+			CpuFreeStream firstQueueInput = new CpuFreeStream(PIPELINE_CAPACITY);
+			CpuFreeStream firstDenialInput = new CpuFreeStream(PIPELINE_CAPACITY);
+			workers.submit(() -> {
+				firstQueueInput.publish(firstCpuFree, chunkSteps);
+				return null;
+			});
+			workers.submit(() -> {
+				firstDenialInput.publish(firstCpuFree, chunkSteps);
+				return null;
+			});
+
+			CpuFreeStream queueInput = firstQueueInput;
+			CpuFreeStream denialInput = firstDenialInput;
+			for (int i = 0; i < levels; i++) {
+				int taskId = taskSet.get(i).getId();
+				boolean last = i == levels - 1;
+				CpuFreeStream queueIn = queueInput;
+				CpuFreeStream denialIn = denialInput;
+				CpuFreeStream queueOut = last ? null : new CpuFreeStream(PIPELINE_CAPACITY);
+				CpuFreeStream denialOut = last ? null : new CpuFreeStream(PIPELINE_CAPACITY);
+
+				workers.submit(() -> {
+					if (verbose)
+						System.out.println("------- Analyze queue task id: " + taskId + " -------");
+					queueSolvers.get(taskId).analyze(timeStep, timeBound, queueIn, queueOut);
+					return null;
+				});
+				workers.submit(() -> {
+					if (verbose)
+						System.out.println("------- Analyze denials task id: " + taskId + " ------- ");
+					denialSolvers.get(taskId).analyze(timeStep, timeBound, denialIn, denialOut);
+					return null;
+				});
+				queueInput = queueOut;
+				denialInput = denialOut;
+			}
+
+			queueOutputs.clear();
+			denialOutputs.clear();
+			for (int i = 0; i < 2 * levels + 2; i++)
+				workers.take().get();
+
+			double[] queueCpuFree = firstCpuFree;
+			double[] denialCpuFree = firstCpuFree;
+			for (SoftRealTimeTask task : taskSet) {
+				queueCpuFree = computeNextCpuProbs(queueCpuFree, queueSolvers.get(task.getId()));
+				queueOutputs.add(queueCpuFree);
+				denialCpuFree = computeNextCpuProbs(denialCpuFree, denialSolvers.get(task.getId()));
+				denialOutputs.add(denialCpuFree);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Pipelined analysis interrupted", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException("Pipelined analysis failed", e.getCause());
+		} finally {
+			// a failed level would leave the next ones waiting for their input
+			executor.shutdownNow();
+		}
 	}
 
 	/**
@@ -174,19 +298,78 @@ public class TaskSetAnalyzer {
 		this.firstCpuFree = hardCpuFree.clone();
 		this.timeBound = timeBound;
 		this.timeStep = timeStep;
+		invalidateFrom(0);
 	}
 
-	private double[] computeNextCpuProbs(double[] previousCpuFree, double[][][][] previousStateProbabilities) {
-		double[] nextProbs = new double[firstCpuFree.length];
-		for (int t = 0; t < nextProbs.length; t++)
-			nextProbs[t] = previousCpuFree[t] * previousStateProbabilities[t][0][0][0];
-		return nextProbs;
+	/**
+	 * Enables checkpoints in all the solvers of the task-set, see
+	 * {@link EDSolver#setCheckpoints(CheckpointStore)}. After
+	 * {@link #changeTimeInterval} with the same time step, each level resumes
+	 * from the last step whose cpu-free probabilities did not change instead of
+	 * t=0.
+	 * 
+	 * @param interval       number of time steps between two snapshots
+	 * @param maxInMemory    maximum number of snapshots kept in memory by each
+	 *                       solver
+	 * @param spillDirectory directory where older snapshots are written, or null
+	 *                       to drop them
+	 */
+	public void setCheckpoints(int interval, int maxInMemory, Path spillDirectory) {
+		for (QueueEDSolver solver : queueSolvers.values())
+			solver.setCheckpoints(new CheckpointStore(interval, maxInMemory, spillDirectory));
+		for (DenialEDSolver solver : denialSolvers.values())
+			solver.setCheckpoints(new CheckpointStore(interval, maxInMemory, spillDirectory));
+		this.checkpointInterval = interval;
+		this.checkpointsInMemory = maxInMemory;
+		this.checkpointDirectory = spillDirectory;
+	}
+
+	/**
+	 * Keeps the extended states of each solver in a memory-mapped file when they
+	 * take more than the given number of bytes, see
+	 * {@link EDSolver#setMappedStorage(long, Path)}
+	 * 
+	 * @param thresholdBytes size above which the states of a solver are mapped
+	 * @param directory      directory of the temporary files, or null for the
+	 *                       default temporary directory
+	 */
+	public void setMappedStorage(long thresholdBytes, Path directory) {
+		for (QueueEDSolver solver : queueSolvers.values())
+			solver.setMappedStorage(thresholdBytes, directory);
+		for (DenialEDSolver solver : denialSolvers.values())
+			solver.setMappedStorage(thresholdBytes, directory);
+		this.mappedThreshold = thresholdBytes;
+		this.mappedDirectory = directory;
+	}
+
+	/**
+	 * Prints a line on the standard output when the analysis of each task starts.
+	 * Enabled by default; analyzers run in parallel should disable it, since their
+	 * lines interleave.
+	 * 
+	 * @param verbose true to print the progress of the analyses
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Discards the results of the given priority level and of all the levels
+	 * below it
+	 * 
+	 * @param level index of the level in the task-set sorted by priority
+	 */
+	private void invalidateFrom(int level) {
+		while (queueOutputs.size() > level)
+			queueOutputs.remove(queueOutputs.size() - 1);
+		while (denialOutputs.size() > level)
+			denialOutputs.remove(denialOutputs.size() - 1);
 	}
 
-	private double[] computeNextCpuProbs(double[] previousCpuFree, double[][][][][] previousStateProbabilities) {
+	private double[] computeNextCpuProbs(double[] previousCpuFree, EDSolver previousSolver) {
 		double[] nextProbs = new double[firstCpuFree.length];
 		for (int t = 0; t < nextProbs.length; t++)
-			nextProbs[t] = previousCpuFree[t] * previousStateProbabilities[t][0][0][0][0];
+			nextProbs[t] = previousCpuFree[t] * previousSolver.getExtendedProbability(t, 0);
 		return nextProbs;
 	}
 
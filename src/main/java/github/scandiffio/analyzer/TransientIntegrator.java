@@ -0,0 +1,68 @@
+package github.scandiffio.analyzer;
+
+/**
+ * Integrates the forward equations of the queue CTMC along the time grid of an
+ * analysis. The probability that the cpu is free is constant within each time
+ * step: during the step from t-1 to t the service transitions are scaled by
+ * cpuFreeProbs[t-1].
+ */
+public interface TransientIntegrator {
+
+	/**
+	 * Propagates the initial state along the time grid
+	 * 
+	 * @param generator     generator of the CTMC
+	 * @param initialState  distribution of the extended states at step 0. The
+	 *                      array may be overwritten
+	 * @param timeStep      length of a time step
+	 * @param cpuFreeProbs  probability of cpu free at each time step
+	 * @param timeBoundStep number of time steps, including step 0
+	 * @param consumer      receives the distribution at steps 1..timeBoundStep-1
+	 */
+	void integrate(SparseGenerator generator, double[] initialState, double timeStep, double[] cpuFreeProbs,
+			int timeBoundStep, StepObserver consumer);
+
+	/**
+	 * Tells whether the state at step t depends only on the state at step t-1 and
+	 * on cpuFreeProbs[t-1], so that an integration restarted from the state at
+	 * any step gives the same states as the whole integration. The solvers only
+	 * resume an analysis from a previous one, see
+	 * {@link EDSolver#setCheckpoints(CheckpointStore)}, with causal integrators.
+	 * The default is false.
+	 * 
+	 * @return true if the integration can be restarted from any step
+	 */
+	default boolean isCausal() {
+		return false;
+	}
+
+	/**
+	 * Propagates several initial states together along the time grid, keeping
+	 * only the distributions at the last step. The states are interleaved: the
+	 * probability of state i in column c is at index i * width + c. The default
+	 * implementation integrates one column at a time.
+	 * 
+	 * @param generator     generator of the CTMC
+	 * @param block         initial states, overwritten with the final ones
+	 * @param width         number of columns
+	 * @param timeStep      length of a time step
+	 * @param cpuFreeProbs  probability of cpu free at each time step
+	 * @param timeBoundStep number of time steps, including step 0
+	 */
+	default void integrateFinal(SparseGenerator generator, double[] block, int width, double timeStep,
+			double[] cpuFreeProbs, int timeBoundStep) {
+		int size = generator.getSize();
+		double[] state = new double[size];
+		for (int c = 0; c < width; c++) {
+			int column = c;
+			for (int i = 0; i < size; i++)
+				state[i] = block[i * width + column];
+			integrate(generator, state, timeStep, cpuFreeProbs, timeBoundStep, (t, current) -> {
+				if (t == timeBoundStep - 1)
+					for (int i = 0; i < size; i++)
+						block[i * width + column] = current[i];
+			});
+		}
+	}
+
+}
@@ -0,0 +1,321 @@
+package github.scandiffio.analyzer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.oristool.models.stpn.TransientSolution;
+import org.oristool.models.stpn.trees.StochasticTransitionFeature;
+import org.oristool.petrinet.InhibitorArc;
+import org.oristool.petrinet.Marking;
+import org.oristool.petrinet.PetriNet;
+import org.oristool.petrinet.Place;
+import org.oristool.petrinet.Postcondition;
+import org.oristool.petrinet.Precondition;
+import org.oristool.petrinet.Transition;
+import org.oristool.util.Feature;
+
+/**
+ * On-disk cache of the transient analyses run by
+ * {@link HardRealTimeAnalyzer#runTransientAnalysis}. Each analysis is stored in
+ * a compressed binary file named after a SHA-256 hash of the net and of the
+ * analysis parameters: places, transitions, pre and post conditions, inhibitor
+ * arcs, the features of the transitions (firing time densities, weights, clock
+ * rates, priorities, enabling functions, ...), the initial marking and the time
+ * step. Places and transitions are hashed in name order, so two nets built in
+ * a different order share their entry.
+ *
+ * The time bound is not part of the hash: the transient probabilities up to a
+ * time do not depend on how far the analysis goes, so a stored analysis serves
+ * every shorter time bound with a prefix of its samples. An analysis with a
+ * longer time bound is computed and replaces the stored one.
+ *
+ * Features are hashed through their description; a feature without a
+ * meaningful toString makes every analysis of its net a miss, never a wrong
+ * hit.
+ */
+public class TransientSolutionCache {
+
+	private static final int MAGIC = 0x54534331;
+
+	private final Path directory;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong prefixHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param directory directory of the cached analyses. It is created if it does
+	 *                  not exist
+	 */
+	public TransientSolutionCache(Path directory) {
+		this.directory = directory;
+		try {
+			Files.createDirectories(directory);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Returns the transient analysis of the net, computing it only if it is not
+	 * in the cache for this or a longer time bound
+	 *
+	 * @param petriNet       net to be analyzed
+	 * @param initialMarking initial marking
+	 * @param timeBound      analysis end time
+	 * @param timeStep       analysis time step
+	 * @return the result of {@link HardRealTimeAnalyzer#runTransientAnalysis}
+	 */
+	public TransientSolution<Marking, Marking> analyze(PetriNet petriNet, Marking initialMarking, String timeBound,
+			String timeStep) {
+		BigDecimal bound = new BigDecimal(timeBound);
+		Path file = directory.resolve(key(petriNet, initialMarking, new BigDecimal(timeStep)) + ".bin");
+
+		TransientSolution<Marking, Marking> cached = read(file, petriNet, bound);
+		if (cached != null) {
+			if (cached.getTimeLimit().compareTo(bound) == 0)
+				hits.incrementAndGet();
+			else
+				prefixHits.incrementAndGet();
+			return prefix(cached, bound);
+		}
+		misses.incrementAndGet();
+		TransientSolution<Marking, Marking> solution = HardRealTimeAnalyzer.runTransientAnalysis(petriNet,
+				initialMarking, timeBound, timeStep);
+		write(file, solution);
+		return solution;
+	}
+
+	/**
+	 * @return the first samples of the solution, up to the time bound
+	 */
+	private static TransientSolution<Marking, Marking> prefix(TransientSolution<Marking, Marking> solution,
+			BigDecimal timeBound) {
+		if (solution.getTimeLimit().compareTo(timeBound) == 0)
+			return solution;
+		TransientSolution<Marking, Marking> prefix = new TransientSolution<Marking, Marking>(timeBound,
+				solution.getStep(), solution.getRegenerations(), solution.getColumnStates(),
+				solution.getInitialRegeneration());
+		double[][][] values = prefix.getSolution();
+		for (int t = 0; t < values.length; t++)
+			for (int r = 0; r < values[t].length; r++)
+				System.arraycopy(solution.getSolution()[t][r], 0, values[t][r], 0, values[t][r].length);
+		return prefix;
+	}
+
+	/**
+	 * Canonical hash of the net, of the initial marking and of the time step
+	 */
+	static String key(PetriNet petriNet, Marking initialMarking, BigDecimal timeStep) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		StringBuilder text = new StringBuilder();
+
+		TreeSet<String> places = new TreeSet<String>(petriNet.getPlaceNames());
+		for (String place : places)
+			text.append("place ").append(place).append(' ').append(initialMarking.getTokens(place)).append('\n');
+
+		List<Transition> transitions = new ArrayList<Transition>(petriNet.getTransitions());
+		transitions.sort(Comparator.comparing(Transition::getName));
+		for (Transition transition : transitions) {
+			text.append("transition ").append(transition.getName()).append('\n');
+			TreeSet<String> arcs = new TreeSet<String>();
+			for (Precondition arc : petriNet.getPreconditions(transition))
+				arcs.add("pre " + arc.getPlace().getName() + " " + arc.getMultiplicity() + features(arc.getFeatures()));
+			for (Postcondition arc : petriNet.getPostconditions(transition))
+				arcs.add("post " + arc.getPlace().getName() + " " + arc.getMultiplicity()
+						+ features(arc.getFeatures()));
+			for (InhibitorArc arc : petriNet.getInhibitorArcs(transition))
+				arcs.add("inhibitor " + arc.getPlace().getName() + " " + arc.getMultiplicity()
+						+ features(arc.getFeatures()));
+			for (String arc : arcs)
+				text.append(arc).append('\n');
+			text.append(features(transition.getFeatures())).append('\n');
+		}
+		text.append(features(petriNet.getFeatures())).append('\n');
+		text.append("step ").append(timeStep.stripTrailingZeros().toPlainString());
+
+		StringBuilder hex = new StringBuilder(64);
+		for (byte b : digest.digest(text.toString().getBytes(StandardCharsets.UTF_8)))
+			hex.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return hex.toString();
+	}
+
+	/**
+	 * Description of a set of features, in class name order
+	 */
+	private static String features(Collection<? extends Feature> features) {
+		TreeSet<String> descriptions = new TreeSet<String>();
+		for (Feature feature : features) {
+			String description;
+			if (feature instanceof StochasticTransitionFeature) {
+				// the feature itself has no toString
+				StochasticTransitionFeature stochastic = (StochasticTransitionFeature) feature;
+				description = "density " + stochastic.density() + " weight " + stochastic.weight() + " rate "
+						+ stochastic.clockRate();
+			} else {
+				description = feature.toString();
+			}
+			descriptions.add(" [" + feature.getClass().getName() + ": " + description + "]");
+		}
+		return String.join("", descriptions);
+	}
+
+	private static void write(Path file, TransientSolution<Marking, Marking> solution) {
+		// markings are written as token counts over a table of the places
+		HashMap<String, Integer> places = new HashMap<String, Integer>();
+		List<String> placeNames = new ArrayList<String>();
+		List<Marking> markings = new ArrayList<Marking>(solution.getRegenerations());
+		markings.addAll(solution.getColumnStates());
+		markings.add(solution.getInitialRegeneration());
+		for (Marking marking : markings)
+			for (String place : marking.getNonEmptyPlacesNames())
+				if (places.putIfAbsent(place, placeNames.size()) == null)
+					placeNames.add(place);
+
+		try {
+			Path temporary = Files.createTempFile(file.getParent(), "transient", ".tmp");
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(new DeflaterOutputStream(Files.newOutputStream(temporary))))) {
+				out.writeInt(MAGIC);
+				out.writeUTF(solution.getTimeLimit().toPlainString());
+				out.writeUTF(solution.getStep().toPlainString());
+				out.writeInt(placeNames.size());
+				for (String place : placeNames)
+					out.writeUTF(place);
+				writeMarkings(out, solution.getRegenerations(), places);
+				writeMarkings(out, solution.getColumnStates(), places);
+				writeMarking(out, solution.getInitialRegeneration(), places);
+				for (double[][] sample : solution.getSolution())
+					for (double[] row : sample)
+						for (double value : row)
+							out.writeDouble(value);
+			}
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void writeMarkings(DataOutputStream out, List<Marking> markings, HashMap<String, Integer> places)
+			throws IOException {
+		out.writeInt(markings.size());
+		for (Marking marking : markings)
+			writeMarking(out, marking, places);
+	}
+
+	private static void writeMarking(DataOutputStream out, Marking marking, HashMap<String, Integer> places)
+			throws IOException {
+		out.writeInt(marking.getNonEmptyPlacesNames().size());
+		for (String place : marking.getNonEmptyPlacesNames()) {
+			out.writeInt(places.get(place));
+			out.writeInt(marking.getTokens(place));
+		}
+	}
+
+	/**
+	 * @return the stored analysis if it reaches at least the time bound, null
+	 *         otherwise
+	 */
+	private static TransientSolution<Marking, Marking> read(Path file, PetriNet petriNet, BigDecimal timeBound) {
+		if (!Files.isRegularFile(file))
+			return null;
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(new InflaterInputStream(Files.newInputStream(file))))) {
+			if (in.readInt() != MAGIC)
+				return null;
+			BigDecimal timeLimit = new BigDecimal(in.readUTF());
+			if (timeLimit.compareTo(timeBound) < 0)
+				return null;
+			BigDecimal step = new BigDecimal(in.readUTF());
+			Place[] places = new Place[in.readInt()];
+			for (int p = 0; p < places.length; p++) {
+				places[p] = petriNet.getPlace(in.readUTF());
+				if (places[p] == null)
+					return null;
+			}
+			List<Marking> regenerations = readMarkings(in, places);
+			List<Marking> columnStates = readMarkings(in, places);
+			Marking initialRegeneration = readMarking(in, places);
+
+			TransientSolution<Marking, Marking> solution = new TransientSolution<Marking, Marking>(timeLimit, step,
+					regenerations, columnStates, initialRegeneration);
+			for (double[][] sample : solution.getSolution())
+				for (double[] row : sample)
+					for (int j = 0; j < row.length; j++)
+						row[j] = in.readDouble();
+			return solution;
+		} catch (IOException | RuntimeException e) {
+			// a damaged entry is computed again
+			return null;
+		}
+	}
+
+	private static List<Marking> readMarkings(DataInputStream in, Place[] places) throws IOException {
+		int size = in.readInt();
+		List<Marking> markings = new ArrayList<Marking>(size);
+		for (int i = 0; i < size; i++)
+			markings.add(readMarking(in, places));
+		return markings;
+	}
+
+	private static Marking readMarking(DataInputStream in, Place[] places) throws IOException {
+		Marking marking = new Marking();
+		int size = in.readInt();
+		for (int i = 0; i < size; i++) {
+			Place place = places[in.readInt()];
+			marking.setTokens(place, in.readInt());
+		}
+		return marking;
+	}
+
+	/**
+	 * @return number of analyses found in the cache with the same time bound
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return number of analyses served by a stored analysis with a longer time
+	 *         bound
+	 */
+	public long getPrefixHits() {
+		return prefixHits.get();
+	}
+
+	/**
+	 * @return number of analyses that had to be computed
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public Path getDirectory() {
+		return directory;
+	}
+
+}
@@ -0,0 +1,147 @@
+package github.scandiffio.analyzer;
+
+import java.util.Arrays;
+
+/**
+ * Uniformization (randomization) of the CTMC. Within each time step the
+ * generator Q is constant and the distribution after the step is
+ * 
+ * p(t + timeStep) = sum_i Poisson(rate * timeStep; i) * p(t) * P^i
+ * 
+ * where P = I + Q / rate is a stochastic matrix and rate is not lower than the
+ * largest exit rate. All terms are non-negative, so the result never has
+ * negative probabilities whatever the time step. The Poisson series is
+ * truncated on both sides, in the style of Fox and Glynn, so that the neglected
+ * weight is below the given error bound.
+ */
+public class UniformizationIntegrator implements TransientIntegrator {
+
+	private final double errorBound;
+
+	/**
+	 * @param errorBound maximum probability mass neglected by the truncation of
+	 *                   the Poisson series at each time step
+	 */
+	public UniformizationIntegrator(double errorBound) {
+		if (errorBound <= 0 || errorBound >= 1)
+			throw new IllegalArgumentException("The error bound must be in the range (0,1). Got " + errorBound);
+		this.errorBound = errorBound;
+	}
+
+	@Override
+	public void integrate(SparseGenerator generator, double[] initialState, double timeStep, double[] cpuFreeProbs,
+			int timeBoundStep, StepObserver consumer) {
+
+		// the exit rates grow with the cpu availability, so a single rate is
+		// enough for the whole analysis and the weights are computed once
+		double maxCpuFree = 0.0;
+		for (int t = 0; t < timeBoundStep - 1; t++)
+			maxCpuFree = Math.max(maxCpuFree, cpuFreeProbs[t]);
+		double rate = generator.maxExitRate(maxCpuFree);
+		PoissonWeights weights = new PoissonWeights(rate * timeStep, errorBound);
+
+		double[] current = initialState;
+		double[] next = new double[current.length];
+		double[] term = new double[current.length];
+		double[] product = new double[current.length];
+		double[] swap;
+
+		for (int t = 1; t < timeBoundStep; t++) {
+			double cpuFree = cpuFreeProbs[t - 1];
+
+			System.arraycopy(current, 0, term, 0, term.length);
+			Arrays.fill(next, 0.0);
+			for (int i = 0; i <= weights.right; i++) {
+				if (i > 0) {
+					generator.uniformizedMultiply(term, product, cpuFree, rate);
+					swap = term;
+					term = product;
+					product = swap;
+				}
+				if (i >= weights.left) {
+					double w = weights.values[i - weights.left];
+					for (int j = 0; j < next.length; j++)
+						next[j] += w * term[j];
+				}
+			}
+
+			swap = current;
+			current = next;
+			next = swap;
+			consumer.observe(t, current);
+		}
+	}
+
+	public double getErrorBound() {
+		return errorBound;
+	}
+
+	/**
+	 * Truncated and normalized Poisson probabilities. The weights are computed
+	 * from the mode outwards, so they neither overflow nor underflow before the
+	 * truncation points, and each tail is cut when a geometric bound of its mass
+	 * drops below half of the error bound.
+	 */
+	static class PoissonWeights {
+
+		final int left;
+		final int right;
+		final double[] values;
+
+		PoissonWeights(double mean, double errorBound) {
+			if (mean == 0.0) {
+				left = 0;
+				right = 0;
+				values = new double[] { 1.0 };
+				return;
+			}
+
+			int mode = (int) Math.floor(mean);
+			double[] up = new double[16];
+			double[] down = new double[16];
+			int upCount = 1;
+			int downCount = 0;
+			up[0] = 1.0;
+			double total = 1.0;
+
+			// right tail: w[i+1] = w[i] * mean / (i+1)
+			int i = mode;
+			double w = 1.0;
+			while (true) {
+				double ratio = mean / (i + 1);
+				if (ratio < 1 && w * ratio / (1 - ratio) <= errorBound / 2 * total)
+					break;
+				w *= ratio;
+				i++;
+				if (upCount == up.length)
+					up = Arrays.copyOf(up, 2 * upCount);
+				up[upCount++] = w;
+				total += w;
+			}
+			right = i;
+
+			// left tail: w[i-1] = w[i] * i / mean
+			i = mode;
+			w = 1.0;
+			while (i > 0) {
+				double ratio = i / mean;
+				if (ratio < 1 && w * ratio / (1 - ratio) <= errorBound / 2 * total)
+					break;
+				w *= ratio;
+				i--;
+				if (downCount == down.length)
+					down = Arrays.copyOf(down, 2 * downCount);
+				down[downCount++] = w;
+				total += w;
+			}
+			left = i;
+
+			values = new double[right - left + 1];
+			for (int k = 0; k < downCount; k++)
+				values[downCount - 1 - k] = down[k] / total;
+			for (int k = 0; k < upCount; k++)
+				values[downCount + k] = up[k] / total;
+		}
+	}
+
+}
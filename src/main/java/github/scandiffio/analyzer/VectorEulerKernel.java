@@ -0,0 +1,119 @@
+package github.scandiffio.analyzer;
+
+import java.util.Arrays;
+import java.util.TreeSet;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Euler step written with the incubating Vector API. The off-diagonal entries
+ * of the generator are stored by diagonals: all the transitions from state j -
+ * d to state j share the offset d, and the queue CTMC has only a handful of
+ * offsets (next arrival phase, job entering the queue, denial, next service
+ * phase, job leaving the queue). The step is then a sequence of multiply-adds
+ * over contiguous lanes of states, reading the source probabilities with
+ * shifted contiguous loads instead of gathers. The sums are fused, so the
+ * results may differ from the scalar step in the last bits.
+ *
+ * This class needs the module jdk.incubator.vector at run time; it is only
+ * loaded by {@link EulerIntegrator} after checking that the module is present.
+ */
+final class VectorEulerKernel implements EulerKernel {
+
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	/**
+	 * Generators with more diagonals are left to the scalar step, which only
+	 * visits the stored entries
+	 */
+	static final int MAX_DIAGONALS = 12;
+
+	private final int size;
+	private final int[] offsets;
+	private final double[][] arrivalRates;
+	private final double[][] serviceRates;
+	private final double[] arrivalDiagonal;
+	private final double[] serviceDiagonal;
+	// states whose diagonals all have their source inside the state space
+	private final int first;
+	private final int end;
+
+	private VectorEulerKernel(SparseGenerator generator, int[] offsets) {
+		this.size = generator.getSize();
+		this.offsets = offsets;
+		this.arrivalDiagonal = generator.getArrivalDiagonal();
+		this.serviceDiagonal = generator.getServiceDiagonal();
+		this.arrivalRates = new double[offsets.length][size];
+		this.serviceRates = new double[offsets.length][size];
+
+		int[] rowStart = generator.getRowStart();
+		int[] columns = generator.getColumns();
+		for (int j = 0; j < size; j++)
+			for (int e = rowStart[j]; e < rowStart[j + 1]; e++) {
+				int d = Arrays.binarySearch(offsets, j - columns[e]);
+				arrivalRates[d][j] += generator.getArrivalRates()[e];
+				serviceRates[d][j] += generator.getServiceRates()[e];
+			}
+
+		this.first = Math.max(offsets[offsets.length - 1], 0);
+		this.end = Math.min(size + offsets[0], size);
+	}
+
+	/**
+	 * @return the kernel of the generator, null if it has too many diagonals
+	 */
+	static VectorEulerKernel of(SparseGenerator generator) {
+		TreeSet<Integer> offsets = new TreeSet<Integer>();
+		int[] rowStart = generator.getRowStart();
+		int[] columns = generator.getColumns();
+		for (int j = 0; j < generator.getSize(); j++)
+			for (int e = rowStart[j]; e < rowStart[j + 1]; e++) {
+				offsets.add(j - columns[e]);
+				if (offsets.size() > MAX_DIAGONALS)
+					return null;
+			}
+		if (offsets.isEmpty())
+			offsets.add(0);
+		return new VectorEulerKernel(generator, offsets.stream().mapToInt(Integer::intValue).toArray());
+	}
+
+	@Override
+	public void eulerStep(double[] prev, double[] next, double timeStep, double cpuFree) {
+		DoubleVector cpu = DoubleVector.broadcast(SPECIES, cpuFree);
+		DoubleVector step = DoubleVector.broadcast(SPECIES, timeStep);
+
+		int j = 0;
+		for (; j < Math.min(first, size); j++)
+			scalarStep(prev, next, timeStep, cpuFree, j);
+		for (int bound = first + SPECIES.loopBound(Math.max(end - first, 0)); j < bound; j += SPECIES.length()) {
+			DoubleVector p = DoubleVector.fromArray(SPECIES, prev, j);
+			DoubleVector diagonal = DoubleVector.fromArray(SPECIES, serviceDiagonal, j).fma(cpu,
+					DoubleVector.fromArray(SPECIES, arrivalDiagonal, j));
+			DoubleVector sum = p.mul(diagonal);
+			for (int d = 0; d < offsets.length; d++) {
+				DoubleVector rate = DoubleVector.fromArray(SPECIES, serviceRates[d], j).fma(cpu,
+						DoubleVector.fromArray(SPECIES, arrivalRates[d], j));
+				sum = DoubleVector.fromArray(SPECIES, prev, j - offsets[d]).fma(rate, sum);
+			}
+			sum.fma(step, p).intoArray(next, j);
+		}
+		for (; j < size; j++)
+			scalarStep(prev, next, timeStep, cpuFree, j);
+	}
+
+	/**
+	 * Euler step of state j, skipping the diagonals whose source is outside the
+	 * state space
+	 */
+	private void scalarStep(double[] prev, double[] next, double timeStep, double cpuFree, int j) {
+		double sum = prev[j] * (arrivalDiagonal[j] + cpuFree * serviceDiagonal[j]);
+		for (int d = 0; d < offsets.length; d++) {
+			int column = j - offsets[d];
+			if (column >= 0 && column < size)
+				sum += prev[column] * (arrivalRates[d][j] + cpuFree * serviceRates[d][j]);
+		}
+		next[j] = prev[j] + timeStep * sum;
+	}
+
+}
@@ -36,7 +36,7 @@ public class OneSoftTaskHasPeriodicBehaviour {
 		SimpleCpu.build(periodicTasksNet, initialMarking);
 
 		TransientSolution<Marking, Marking> hardTaskTransientSolution = HardRealTimeAnalyzer
-				.runTransientAnalysis(periodicTasksNet, initialMarking, timeBound, timeStep);
+				.runFastestTransientAnalysis(periodicTasksNet, initialMarking, timeBound, timeStep);
 
 		TransientSolution<Marking, RewardRate> cpuFreeSolution = TransientSolution.computeRewards(false,
 				hardTaskTransientSolution, cpuReward);
@@ -0,0 +1,50 @@
+package github.scandiffio.experiments;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import org.oristool.models.stpn.RewardRate;
+import org.oristool.models.stpn.TransientSolution;
+import org.oristool.petrinet.Marking;
+import org.oristool.petrinet.PetriNet;
+
+import github.scandiffio.analyzer.HardRealTimeAnalyzer;
+import github.scandiffio.analyzer.ParameterSweep;
+import github.scandiffio.experiments.nets.simple_cpu.SimpleCpu;
+
+public class SoftTaskParameterSweep {
+
+	public static void main(String[] args) throws IOException {
+
+		String timeBound = "45";
+		String cpuReward = "cpu==1";
+
+		ParameterSweep sweep = new ParameterSweep(timeStep -> {
+			PetriNet periodicTasksNet = new PetriNet();
+			Marking initialMarking = new Marking();
+			SimpleCpu.build(periodicTasksNet, initialMarking);
+
+			TransientSolution<Marking, Marking> hardTaskTransientSolution = HardRealTimeAnalyzer
+					.runFastestTransientAnalysis(periodicTasksNet, initialMarking, timeBound,
+							timeStep.toPlainString());
+			TransientSolution<Marking, RewardRate> cpuFreeSolution = TransientSolution.computeRewards(false,
+					hardTaskTransientSolution, cpuReward);
+
+			double[] cpuFree = new double[hardTaskTransientSolution.getSamplesNumber()];
+			for (int t = 0; t < cpuFree.length; t++)
+				cpuFree[t] = cpuFreeSolution.getSolution()[t][0][0];
+			return cpuFree;
+		}, new BigInteger(timeBound), 1.0, 1.0);
+
+		sweep.setQueueSizes(2, 4, 8).setMaxDenials(5).setArrivalCoefficientsOfVariation(0.5, 1.0, 2.0)
+				.setServiceCoefficientsOfVariation(0.5, 1.0).setTimeSteps(new BigDecimal("0.1"));
+
+		try (FileWriter table = new FileWriter("SweepResults.csv")) {
+			int points = sweep.run(table, Runtime.getRuntime().availableProcessors());
+			System.out.println("Analyzed points: " + points);
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+package github.scandiffio.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the files written by {@link ColumnarResultWriter}. The columns stored
+ * without compression are mapped in memory and handed back as read-only
+ * {@link DoubleBuffer} views of the file, with no copy; compressed columns are
+ * inflated once when the file is opened.
+ */
+public class ColumnarResultReader {
+
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final Pattern DESCRIPTION = Pattern.compile("'descr':\\s*'<f8'");
+	private static final Pattern SHAPE = Pattern.compile("'shape':\\s*\\((\\d+),?\\)");
+
+	private final DoubleBuffer time;
+	private final LinkedHashMap<String, DoubleBuffer> columns = new LinkedHashMap<String, DoubleBuffer>();
+
+	/**
+	 * Opens a result file and locates its columns
+	 *
+	 * @param file file written by {@link ColumnarResultWriter}
+	 * @throws IOException if the file cannot be read or is not a result file
+	 */
+	public ColumnarResultReader(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			DoubleBuffer timeColumn = null;
+			for (Entry entry : readCentralDirectory(channel)) {
+				if (!entry.name.endsWith(".npy"))
+					throw new IOException("Unexpected entry " + entry.name);
+				DoubleBuffer values = readEntry(channel, entry);
+				String name = entry.name.substring(0, entry.name.length() - 4);
+				if (name.equals(ColumnarResultWriter.TIME))
+					timeColumn = values;
+				else
+					columns.put(name, values);
+			}
+			if (timeColumn == null)
+				throw new IOException("The file has no time grid");
+			this.time = timeColumn;
+		}
+	}
+
+	/**
+	 * @return the time of each row
+	 */
+	public DoubleBuffer getTime() {
+		return time.duplicate();
+	}
+
+	/**
+	 * @return the names of the columns, in the order they were written
+	 */
+	public String[] getColumnNames() {
+		return columns.keySet().toArray(new String[0]);
+	}
+
+	/**
+	 * @param name name of the column
+	 * @return the values of the column, one for each row
+	 */
+	public DoubleBuffer getColumn(String name) {
+		DoubleBuffer column = columns.get(name);
+		if (column == null)
+			throw new IllegalArgumentException("No column named " + name);
+		return column.duplicate();
+	}
+
+	/**
+	 * @param index position of the column, not counting the time grid
+	 * @return the values of the column, one for each row
+	 */
+	public DoubleBuffer getColumn(int index) {
+		return getColumn(getColumnNames()[index]);
+	}
+
+	/**
+	 * @return number of rows
+	 */
+	public int getRows() {
+		return time.capacity();
+	}
+
+	private static ArrayList<Entry> readCentralDirectory(FileChannel channel) throws IOException {
+		// the writer does not add a comment, so the end record closes the file
+		ByteBuffer end = read(channel, channel.size() - 22, 22);
+		if (end.getInt(0) != END_OF_CENTRAL_DIRECTORY)
+			throw new IOException("Not a result file");
+		int count = Short.toUnsignedInt(end.getShort(10));
+		ByteBuffer directory = read(channel, Integer.toUnsignedLong(end.getInt(16)),
+				Integer.toUnsignedLong(end.getInt(12)));
+
+		ArrayList<Entry> entries = new ArrayList<Entry>();
+		for (int e = 0; e < count; e++) {
+			if (directory.getInt() != CENTRAL_HEADER)
+				throw new IOException("Corrupted central directory");
+			Entry entry = new Entry();
+			directory.position(directory.position() + 6);
+			entry.method = directory.getShort();
+			directory.position(directory.position() + 8);
+			entry.compressedSize = Integer.toUnsignedLong(directory.getInt());
+			entry.size = Integer.toUnsignedLong(directory.getInt());
+			int nameLength = Short.toUnsignedInt(directory.getShort());
+			int extraLength = Short.toUnsignedInt(directory.getShort());
+			int commentLength = Short.toUnsignedInt(directory.getShort());
+			directory.position(directory.position() + 8);
+			entry.offset = Integer.toUnsignedLong(directory.getInt());
+			byte[] name = new byte[nameLength];
+			directory.get(name);
+			entry.name = new String(name, StandardCharsets.UTF_8);
+			directory.position(directory.position() + extraLength + commentLength);
+			entries.add(entry);
+		}
+		return entries;
+	}
+
+	private static DoubleBuffer readEntry(FileChannel channel, Entry entry) throws IOException {
+		ByteBuffer local = read(channel, entry.offset, 30);
+		long dataOffset = entry.offset + 30 + Short.toUnsignedInt(local.getShort(26))
+				+ Short.toUnsignedInt(local.getShort(28));
+
+		ByteBuffer content;
+		if (entry.method == 0) {
+			content = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset, entry.size);
+		} else if (entry.method == 8) {
+			content = ByteBuffer.allocate((int) entry.size);
+			Inflater inflater = new Inflater(true);
+			inflater.setInput(read(channel, dataOffset, entry.compressedSize));
+			try {
+				while (content.hasRemaining() && !inflater.finished())
+					if (inflater.inflate(content) == 0 && inflater.needsInput())
+						throw new IOException("Truncated entry " + entry.name);
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupted entry " + entry.name, e);
+			} finally {
+				inflater.end();
+			}
+			content.flip();
+		} else {
+			throw new IOException("Unsupported compression of entry " + entry.name);
+		}
+		return npyValues(content.order(ByteOrder.LITTLE_ENDIAN), entry.name);
+	}
+
+	/**
+	 * @return a view of the values of a .npy vector of doubles
+	 */
+	private static DoubleBuffer npyValues(ByteBuffer content, String name) throws IOException {
+		for (int i = 0; i < ColumnarResultWriter.NPY_MAGIC.length; i++)
+			if (content.get(i) != ColumnarResultWriter.NPY_MAGIC[i])
+				throw new IOException("Entry " + name + " is not in the .npy format");
+		int major = content.get(6);
+		int headerLength = major == 1 ? Short.toUnsignedInt(content.getShort(8)) : content.getInt(8);
+		int dataStart = (major == 1 ? 10 : 12) + headerLength;
+		byte[] header = new byte[headerLength];
+		content.get(dataStart - headerLength, header);
+		String text = new String(header, StandardCharsets.ISO_8859_1);
+
+		Matcher shape = SHAPE.matcher(text);
+		if (!DESCRIPTION.matcher(text).find() || !shape.find())
+			throw new IOException("Entry " + name + " is not a vector of little-endian doubles");
+		int length = Integer.parseInt(shape.group(1));
+		if (content.limit() - dataStart < (long) length * Double.BYTES)
+			throw new IOException("Truncated entry " + name);
+
+		return content.slice(dataStart, length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer()
+				.asReadOnlyBuffer();
+	}
+
+	private static ByteBuffer read(FileChannel channel, long position, long length) throws IOException {
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Entries larger than 2 GB are not supported");
+		ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining())
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of file");
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Fields of an entry of the central directory
+	 */
+	private static class Entry {
+		private String name;
+		private long offset;
+		private long size;
+		private long compressedSize;
+		private short method;
+	}
+
+}
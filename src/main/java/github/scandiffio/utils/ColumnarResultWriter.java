@@ -0,0 +1,222 @@
+package github.scandiffio.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Binary columnar alternative to {@link ResultWriter}. A result matrix indexed
+ * by [time][column] is written as a NumPy .npz archive: the entry "time" holds
+ * the time grid and each column is an entry named after it, with its values
+ * contiguous as little-endian doubles in the .npy format. numpy.load reads the
+ * file as a dictionary of arrays, and {@link ColumnarResultReader} maps the
+ * columns back without copies.
+ *
+ * The entries are stored as they are, with their data aligned to 64 bytes in
+ * the file, or compressed with deflate. The file is written through a
+ * {@link FileChannel}, one column at a time.
+ */
+public class ColumnarResultWriter {
+
+	static final String TIME = "time";
+	static final byte[] NPY_MAGIC = { (byte) 0x93, 'N', 'U', 'M', 'P', 'Y' };
+	static final int ALIGNMENT = 64;
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	// extra field used to pad the local headers, as done by zipalign
+	private static final short ALIGNMENT_EXTRA = (short) 0xD935;
+	private static final short UTF8_NAMES = 0x0800;
+	// 1980-01-01 00:00, the first date of the zip format
+	private static final short DOS_DATE = 0x21;
+
+	private ColumnarResultWriter() {
+		throw new UnsupportedOperationException("It is not allowed to instantiate objects of this class");
+	}
+
+	/**
+	 * Writes the result matrix with the columns named like
+	 * {@link ResultWriter#writeResultToCsv}, that is headerPrefix + ": " + index
+	 *
+	 * @param file         destination file, usually with the .npz extension
+	 * @param results      values indexed by [time][column]
+	 * @param timeStep     time between two rows
+	 * @param headerPrefix prefix of the column names
+	 * @param compress     true to compress the columns
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(Path file, double[][] results, double timeStep, String headerPrefix, boolean compress)
+			throws IOException {
+		int columns = results.length > 0 ? results[0].length : 0;
+		String[] names = new String[columns];
+		for (int j = 0; j < columns; j++)
+			names[j] = headerPrefix + ": " + j;
+		write(file, results, timeStep, names, compress);
+	}
+
+	/**
+	 * Writes the result matrix
+	 *
+	 * @param file        destination file, usually with the .npz extension
+	 * @param results     values indexed by [time][column]
+	 * @param timeStep    time between two rows
+	 * @param columnNames name of each column
+	 * @param compress    true to compress the columns
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(Path file, double[][] results, double timeStep, String[] columnNames, boolean compress)
+			throws IOException {
+
+		int rows = results.length;
+		HashSet<String> distinct = new HashSet<String>();
+		distinct.add(TIME);
+		for (String name : columnNames)
+			if (!distinct.add(name))
+				throw new IllegalArgumentException("Column names must be distinct and different from \"" + TIME
+						+ "\". Got " + name);
+		for (double[] row : results)
+			if (row.length != columnNames.length)
+				throw new IllegalArgumentException("Each row must have " + columnNames.length + " values");
+		if ((long) rows * Double.BYTES + ALIGNMENT > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Columns larger than 2 GB are not supported");
+
+		ArrayList<CentralEntry> entries = new ArrayList<CentralEntry>();
+		ByteBuffer column = npyBuffer(rows);
+		int dataStart = column.position();
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			for (int j = -1; j < columnNames.length; j++) {
+				column.position(dataStart);
+				for (int t = 0; t < rows; t++)
+					column.putDouble(j < 0 ? t * timeStep : results[t][j]);
+				column.flip();
+				entries.add(writeEntry(channel, (j < 0 ? TIME : columnNames[j]) + ".npy", column, compress));
+				column.clear();
+			}
+			writeCentralDirectory(channel, entries);
+		}
+	}
+
+	/**
+	 * @return a buffer holding the .npy header of a vector of doubles, positioned
+	 *         at the beginning of the data
+	 */
+	private static ByteBuffer npyBuffer(int length) {
+		StringBuilder header = new StringBuilder("{'descr': '<f8', 'fortran_order': False, 'shape': (");
+		header.append(length).append(",), }");
+		// magic, version and header length take 10 bytes; the header ends with a
+		// newline and the data starts on a multiple of the alignment
+		while ((10 + header.length() + 1) % ALIGNMENT != 0)
+			header.append(' ');
+		header.append('\n');
+
+		ByteBuffer buffer = ByteBuffer.allocate(10 + header.length() + length * Double.BYTES)
+				.order(ByteOrder.LITTLE_ENDIAN);
+		buffer.put(NPY_MAGIC).put((byte) 1).put((byte) 0).putShort((short) header.length());
+		buffer.put(header.toString().getBytes(StandardCharsets.US_ASCII));
+		return buffer;
+	}
+
+	private static CentralEntry writeEntry(FileChannel channel, String name, ByteBuffer content, boolean compress)
+			throws IOException {
+
+		CentralEntry entry = new CentralEntry();
+		entry.name = name.getBytes(StandardCharsets.UTF_8);
+		entry.offset = channel.position();
+		entry.size = content.remaining();
+		CRC32 crc = new CRC32();
+		crc.update(content.duplicate());
+		entry.crc = (int) crc.getValue();
+
+		ByteBuffer data = content;
+		if (compress) {
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			deflater.setInput(content);
+			deflater.finish();
+			ByteBuffer compressed = ByteBuffer.allocate(entry.size + entry.size / 1000 + 64);
+			while (!deflater.finished()) {
+				if (!compressed.hasRemaining()) {
+					ByteBuffer larger = ByteBuffer.allocate(2 * compressed.capacity());
+					compressed.flip();
+					compressed = larger.put(compressed);
+				}
+				deflater.deflate(compressed);
+			}
+			deflater.end();
+			compressed.flip();
+			data = compressed;
+			entry.method = 8;
+		}
+		entry.compressedSize = data.remaining();
+
+		// stored entries are padded so that their data, and so the values after
+		// the .npy header, is aligned
+		int extra = 0;
+		if (!compress) {
+			extra = (int) ((ALIGNMENT - (entry.offset + 30 + entry.name.length) % ALIGNMENT) % ALIGNMENT);
+			if (extra > 0 && extra < 4)
+				extra += ALIGNMENT;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(30 + entry.name.length + extra).order(ByteOrder.LITTLE_ENDIAN);
+		header.putInt(LOCAL_HEADER).putShort((short) 20).putShort(UTF8_NAMES).putShort(entry.method)
+				.putShort((short) 0).putShort(DOS_DATE).putInt(entry.crc).putInt(entry.compressedSize)
+				.putInt(entry.size).putShort((short) entry.name.length).putShort((short) extra).put(entry.name);
+		if (extra > 0)
+			header.putShort(ALIGNMENT_EXTRA).putShort((short) (extra - 4));
+		header.position(0);
+
+		ByteBuffer[] buffers = { header, data };
+		while (data.hasRemaining())
+			channel.write(buffers);
+		return entry;
+	}
+
+	private static void writeCentralDirectory(FileChannel channel, ArrayList<CentralEntry> entries)
+			throws IOException {
+
+		long start = channel.position();
+		if (start > 0xFFFFFFFFL || entries.size() > 0xFFFF)
+			throw new IllegalArgumentException("Results larger than 4 GB are not supported");
+
+		int length = 0;
+		for (CentralEntry entry : entries)
+			length += 46 + entry.name.length;
+		ByteBuffer directory = ByteBuffer.allocate(length + 22).order(ByteOrder.LITTLE_ENDIAN);
+		for (CentralEntry entry : entries)
+			directory.putInt(CENTRAL_HEADER).putShort((short) 20).putShort((short) 20).putShort(UTF8_NAMES)
+					.putShort(entry.method).putShort((short) 0).putShort(DOS_DATE).putInt(entry.crc)
+					.putInt(entry.compressedSize).putInt(entry.size).putShort((short) entry.name.length)
+					.putShort((short) 0).putShort((short) 0).putShort((short) 0).putShort((short) 0).putInt(0)
+					.putInt((int) entry.offset).put(entry.name);
+		directory.putInt(END_OF_CENTRAL_DIRECTORY).putShort((short) 0).putShort((short) 0)
+				.putShort((short) entries.size()).putShort((short) entries.size()).putInt(length).putInt((int) start)
+				.putShort((short) 0);
+		directory.flip();
+		while (directory.hasRemaining())
+			channel.write(directory);
+	}
+
+	/**
+	 * Fields of an entry repeated in the central directory
+	 */
+	private static class CentralEntry {
+		private byte[] name;
+		private long offset;
+		private int crc;
+		private int size;
+		private int compressedSize;
+		private short method;
+	}
+
+}
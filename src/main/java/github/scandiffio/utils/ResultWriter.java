@@ -1,42 +1,61 @@
 package github.scandiffio.utils;
 
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 
+/**
+ * Writes a result matrix, already computed, to a CSV file. To write the results
+ * while the analysis runs, without keeping them in memory, see
+ * {@link StreamingCsvWriter}.
+ */
 public class ResultWriter {
 
 	public static boolean writeResultToCsv(String filename, double[][] results, double timeStep, String headerPrefix) {
+		return writeResultToCsv(filename, results, timeStep, headerPrefix, 0);
+	}
+
+	/**
+	 * Writes the result matrix with one row for each time step
+	 *
+	 * @param filename         destination file
+	 * @param results          values indexed by [time][column]
+	 * @param timeStep         time between two rows
+	 * @param headerPrefix     prefix of the column names
+	 * @param progressInterval number of rows between two "TIME: t" messages on
+	 *                         the standard output, 0 for no progress reporting
+	 * @return true if the file has been written
+	 */
+	public static boolean writeResultToCsv(String filename, double[][] results, double timeStep, String headerPrefix,
+			int progressInterval) {
 		boolean success = false;
 		// TODO what if file already exists
 		// TODO what if filename has invalid name
 		// TODO what if timestep is not compatible with results
 		// TODO what if header is wrong
-		try (FileWriter file = new FileWriter(filename)) {
-			String header = "Time";
-			String line = "";
-			String time = null;
+		try (BufferedWriter file = new BufferedWriter(new FileWriter(filename), 1 << 16)) {
+			StringBuilder line = new StringBuilder("Time");
 			int samples = results.length;
 			int nCols = results[0].length; // TODO what if results is empty
 
 			// build header
 			for (int i = 0; i < nCols; i++)
-				header = header.concat(";" + headerPrefix + ": " + i);
-			file.append(header);
-			file.append("\n");
+				line.append(';').append(headerPrefix).append(": ").append(i);
+			line.append('\n');
+			file.append(line);
 
 			// write matrix
 			for (int t = 0; t < samples; t++) {
-				line = "";
-				System.out.println("TIME: " + String.valueOf(t * timeStep));
-				line = line.concat(String.valueOf(t * timeStep));
+				if (progressInterval > 0 && t % progressInterval == 0)
+					System.out.println("TIME: " + String.valueOf(t * timeStep));
+				line.setLength(0);
+				line.append(t * timeStep);
 				for (int j = 0; j < nCols; j++)
-					line = line.concat(";" + results[t][j]);
-				line = line.concat("\n");
+					line.append(';').append(results[t][j]);
+				line.append('\n');
 				file.append(line);
-
 			}
 
-			file.close();
 			success = true;
 		} catch (IOException e) {
 
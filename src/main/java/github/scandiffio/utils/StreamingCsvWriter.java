@@ -0,0 +1,392 @@
+package github.scandiffio.utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import github.scandiffio.analyzer.ExtendedStateSpace;
+import github.scandiffio.analyzer.Marginal;
+import github.scandiffio.analyzer.StepObserver;
+
+/**
+ * Streaming alternative to {@link ResultWriter}: a step observer that writes
+ * one marginal of the solver state to a CSV file while the analysis runs, in
+ * the same layout, so the result matrix is never held in memory.
+ *
+ * The rows are formatted in the solver thread directly into byte buffers, with
+ * no allocation per value; full buffers are handed through a bounded queue to a
+ * background thread that writes them to a {@link FileChannel}, so formatting
+ * and I/O overlap with the next solver steps. When the queue is full the solver
+ * waits for the disk. The writer must be closed after the analysis, to flush the
+ * last rows and stop the background thread.
+ */
+public class StreamingCsvWriter implements StepObserver, Closeable {
+
+	public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+	public static final int DEFAULT_QUEUE_CAPACITY = 4;
+	public static final int DEFAULT_SIGNIFICANT_DIGITS = 15;
+
+	// the scaling by powers of ten may be off by one unit in the 17th digit,
+	// so the values are written with at most the 15 digits a double holds
+	private static final int MAX_SIGNIFICANT_DIGITS = 15;
+	// sign, digits, point, exponent and separator of a formatted value
+	private static final int MAX_VALUE_BYTES = MAX_SIGNIFICANT_DIGITS + 12;
+	private static final double[] POW10 = new double[309];
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	static {
+		for (int i = 0; i < POW10.length; i++)
+			POW10[i] = Double.parseDouble("1e" + i);
+	}
+
+	private final FileChannel channel;
+	private final Marginal marginal;
+	private final int samplingInterval;
+	private final double timeStep;
+	private final String headerPrefix;
+	private final int significantDigits;
+	private final long mantissaLimit;
+	private final byte[] digits = new byte[20];
+
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+	private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+	private PrintStream progress;
+	private int progressInterval;
+
+	private ExtendedStateSpace stateSpace;
+	private double[] values;
+	private ByteBuffer buffer;
+	private ArrayBlockingQueue<ByteBuffer> full;
+	private ArrayBlockingQueue<ByteBuffer> free;
+	private Thread writer;
+	private volatile IOException failure;
+	private long rows;
+
+	/**
+	 * Builds a writer that writes the marginal at every time step
+	 *
+	 * @param file         destination file, replaced if it exists
+	 * @param marginal     marginal to be written
+	 * @param timeStep     analysis time step
+	 * @param headerPrefix prefix of the column names
+	 * @throws IOException if the file cannot be opened
+	 */
+	public StreamingCsvWriter(Path file, Marginal marginal, double timeStep, String headerPrefix)
+			throws IOException {
+		this(file, marginal, 1, timeStep, headerPrefix, DEFAULT_SIGNIFICANT_DIGITS);
+	}
+
+	/**
+	 * Builds a writer that writes the marginal at steps 0, samplingInterval,
+	 * 2*samplingInterval, ...
+	 *
+	 * @param file              destination file, replaced if it exists
+	 * @param marginal          marginal to be written
+	 * @param samplingInterval  number of time steps between two rows
+	 * @param timeStep          analysis time step
+	 * @param headerPrefix      prefix of the column names
+	 * @param significantDigits significant digits of each value, from 1 to 15
+	 * @throws IOException if the file cannot be opened
+	 */
+	public StreamingCsvWriter(Path file, Marginal marginal, int samplingInterval, double timeStep,
+			String headerPrefix, int significantDigits) throws IOException {
+		if (samplingInterval <= 0)
+			throw new IllegalArgumentException("The sampling interval must be positive");
+		if (timeStep <= 0)
+			throw new IllegalArgumentException("The time step must be positive");
+		if (significantDigits < 1 || significantDigits > MAX_SIGNIFICANT_DIGITS)
+			throw new IllegalArgumentException(
+					"The significant digits must be between 1 and " + MAX_SIGNIFICANT_DIGITS);
+		this.marginal = marginal;
+		this.samplingInterval = samplingInterval;
+		this.timeStep = timeStep;
+		this.headerPrefix = headerPrefix;
+		this.significantDigits = significantDigits;
+		long limit = 1;
+		for (int i = 0; i < significantDigits; i++)
+			limit *= 10;
+		this.mantissaLimit = limit;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+
+	/**
+	 * Sets the size of the buffers handed to the background thread and how many
+	 * full buffers may wait to be written. Must be called before the analysis.
+	 *
+	 * @param bufferSize    bytes of each buffer
+	 * @param queueCapacity number of full buffers waiting to be written before
+	 *                      the solver is stopped
+	 */
+	public void setBuffering(int bufferSize, int queueCapacity) {
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("The buffer size must be positive");
+		if (queueCapacity <= 0)
+			throw new IllegalArgumentException("The queue capacity must be positive");
+		if (writer != null)
+			throw new IllegalStateException("The analysis has already started");
+		this.bufferSize = bufferSize;
+		this.queueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Prints "TIME: t" on the given stream every progressInterval rows, as
+	 * {@link ResultWriter} did for each row
+	 *
+	 * @param progress         stream of the progress messages, or null for no
+	 *                         progress reporting
+	 * @param progressInterval number of rows between two messages
+	 */
+	public void setProgress(PrintStream progress, int progressInterval) {
+		if (progress != null && progressInterval <= 0)
+			throw new IllegalArgumentException("The progress interval must be positive");
+		this.progress = progress;
+		this.progressInterval = progressInterval;
+	}
+
+	@Override
+	public void begin(ExtendedStateSpace stateSpace, int timeBoundStep) {
+		if (writer != null)
+			throw new IllegalStateException("A writer can be used for a single analysis");
+		this.stateSpace = stateSpace;
+		this.values = new double[marginal.width(stateSpace)];
+
+		byte[] prefix = (";" + headerPrefix + ": ").getBytes(StandardCharsets.UTF_8);
+		int rowBytes = (values.length + 1) * MAX_VALUE_BYTES;
+		int headerBytes = prefix.length + 12;
+		int size = Math.max(bufferSize, Math.max(rowBytes, headerBytes));
+
+		// one buffer is filled, one is written and the others wait in the queue;
+		// the end marker takes one more place
+		full = new ArrayBlockingQueue<ByteBuffer>(queueCapacity + 1);
+		free = new ArrayBlockingQueue<ByteBuffer>(queueCapacity + 2);
+		for (int i = 0; i < queueCapacity + 1; i++)
+			free.add(ByteBuffer.allocateDirect(size));
+		buffer = ByteBuffer.allocateDirect(size);
+		writer = new Thread(this::drain, "csv-writer");
+		writer.setDaemon(true);
+		writer.start();
+
+		buffer.put((byte) 'T').put((byte) 'i').put((byte) 'm').put((byte) 'e');
+		for (int i = 0; i < values.length; i++) {
+			ensure(headerBytes);
+			buffer.put(prefix);
+			putLong(i);
+		}
+		buffer.put((byte) '\n');
+	}
+
+	@Override
+	public void observe(int step, double[] state) {
+		if (step % samplingInterval != 0)
+			return;
+		marginal.compute(stateSpace, state, values);
+
+		ensure((values.length + 1) * MAX_VALUE_BYTES);
+		double time = step * timeStep;
+		putDouble(time);
+		for (int i = 0; i < values.length; i++) {
+			buffer.put((byte) ';');
+			putDouble(values[i]);
+		}
+		buffer.put((byte) '\n');
+
+		if (progress != null && rows % progressInterval == 0)
+			progress.println("TIME: " + time);
+		rows++;
+	}
+
+	/**
+	 * Writes the remaining rows, waits for the background thread and closes the
+	 * file. After a failure the remaining rows are dropped, but the background
+	 * thread is stopped all the same.
+	 *
+	 * @throws IOException if a row could not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			if (writer != null && writer.isAlive()) {
+				if (failure == null) {
+					buffer.flip();
+					full.put(buffer);
+				}
+				full.put(END);
+				writer.join();
+			}
+		} catch (InterruptedException e) {
+			// the end marker may not have been queued
+			writer.interrupt();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing the last rows");
+		} finally {
+			channel.close();
+		}
+		if (failure != null)
+			throw failure;
+	}
+
+	/**
+	 * @return number of rows written, not counting the header
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	public Marginal getMarginal() {
+		return marginal;
+	}
+
+	public int getSamplingInterval() {
+		return samplingInterval;
+	}
+
+	/**
+	 * Body of the background thread. After a failure the buffers are still
+	 * recycled, so that the solver is not blocked, and the error is reported to
+	 * it at the next hand over.
+	 */
+	private void drain() {
+		try {
+			for (ByteBuffer next = full.take(); next != END; next = full.take()) {
+				try {
+					if (failure == null)
+						while (next.hasRemaining())
+							channel.write(next);
+				} catch (IOException e) {
+					failure = e;
+				}
+				next.clear();
+				free.put(next);
+			}
+		} catch (InterruptedException e) {
+			failure = new InterruptedIOException("The writer thread was interrupted");
+		}
+	}
+
+	private void ensure(int bytes) {
+		if (buffer.remaining() < bytes) {
+			try {
+				handOver();
+				buffer = free.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new UncheckedIOException(new InterruptedIOException("Interrupted while writing the rows"));
+			}
+		}
+	}
+
+	private void handOver() throws InterruptedException {
+		if (failure != null)
+			throw new UncheckedIOException(failure);
+		buffer.flip();
+		full.put(buffer);
+	}
+
+	private void putLong(long value) {
+		if (value < 0) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		int length = 0;
+		do {
+			digits[length++] = (byte) ('0' + value % 10);
+			value /= 10;
+		} while (value > 0);
+		while (length > 0)
+			buffer.put(digits[--length]);
+	}
+
+	/**
+	 * Writes value rounded to the significant digits, without trailing zeros, in
+	 * plain notation when its decimal exponent is between -4 and the number of
+	 * digits and in scientific notation, as 1.5E-7, otherwise
+	 */
+	private void putDouble(double value) {
+		if (Double.isNaN(value)) {
+			buffer.put((byte) 'N').put((byte) 'a').put((byte) 'N');
+			return;
+		}
+		if (value < 0 || (value == 0 && 1 / value < 0)) {
+			buffer.put((byte) '-');
+			value = -value;
+		}
+		if (Double.isInfinite(value)) {
+			buffer.put((byte) 'I').put((byte) 'n').put((byte) 'f').put((byte) 'i').put((byte) 'n').put((byte) 'i')
+					.put((byte) 't').put((byte) 'y');
+			return;
+		}
+		if (value == 0) {
+			buffer.put((byte) '0');
+			return;
+		}
+
+		// the logarithm may miss the exponent by one near the powers of ten
+		int exponent = (int) Math.floor(Math.log10(value));
+		long mantissa = scale(value, significantDigits - 1 - exponent);
+		if (mantissa < mantissaLimit / 10) {
+			exponent--;
+			mantissa = scale(value, significantDigits - 1 - exponent);
+		} else if (mantissa >= mantissaLimit) {
+			exponent++;
+			mantissa = scale(value, significantDigits - 1 - exponent);
+		}
+		if (mantissa >= mantissaLimit) {
+			// rounded up to the next power of ten
+			mantissa /= 10;
+			exponent++;
+		}
+
+		int length = significantDigits;
+		for (int i = length - 1; i >= 0; i--) {
+			digits[i] = (byte) ('0' + mantissa % 10);
+			mantissa /= 10;
+		}
+		while (length > 1 && digits[length - 1] == '0')
+			length--;
+
+		if (exponent >= -4 && exponent < significantDigits) {
+			if (exponent >= 0) {
+				for (int i = 0; i <= exponent; i++)
+					buffer.put(i < length ? digits[i] : (byte) '0');
+				if (length > exponent + 1) {
+					buffer.put((byte) '.');
+					buffer.put(digits, exponent + 1, length - exponent - 1);
+				}
+			} else {
+				buffer.put((byte) '0').put((byte) '.');
+				for (int i = -1; i > exponent; i--)
+					buffer.put((byte) '0');
+				buffer.put(digits, 0, length);
+			}
+		} else {
+			buffer.put(digits[0]);
+			if (length > 1) {
+				buffer.put((byte) '.');
+				buffer.put(digits, 1, length - 1);
+			}
+			buffer.put((byte) 'E');
+			putLong(exponent);
+		}
+	}
+
+	/**
+	 * @return value * 10^power rounded to the nearest integer
+	 */
+	private static long scale(double value, int power) {
+		if (power > 308)
+			return Math.round(value * POW10[power - 308] * POW10[308]);
+		if (power >= 0)
+			return Math.round(value * POW10[power]);
+		return Math.round(value / POW10[-power]);
+	}
+
+}